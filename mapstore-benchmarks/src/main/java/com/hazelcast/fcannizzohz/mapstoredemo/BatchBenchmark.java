@@ -0,0 +1,102 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Record;
+import com.hazelcast.map.EntryLoader.MetadataAwareValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * loadAll() / storeAll() of the record and CDT stores against the fake client: request
+ * building, chunking, result mapping and bookkeeping for a batch of {@code batchSize} keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    private static final int MAX_BATCH = 1000;
+
+    @Param({"1", "10", "100", "1000"})
+    int batchSize;
+
+    @Param({"100"})
+    int valueSize;
+
+    private StringStringRecordMapStore recordStore;
+    private StringStringCdtMapStore cdtStore;
+
+    private List<String> keys;
+    private Map<String, String> entries;
+    private Map<String, MetadataAwareValue<String>> recordEntries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String value = "v".repeat(valueSize);
+        keys = new ArrayList<>(batchSize);
+        entries = new HashMap<>();
+        recordEntries = new HashMap<>();
+        for (int i = 0; i < batchSize; i++) {
+            keys.add("key-" + i);
+            entries.put("key-" + i, value);
+            recordEntries.put("key-" + i, new MetadataAwareValue<>(value));
+        }
+
+        Record record = new Record(Map.of("value", value), 1, 0);
+        recordStore = new FakeAerospikeClient.RecordStore(FakeAerospikeClient.create(record));
+        recordStore.init(null, new Properties(), "batch");
+
+        // getByKeyList answers one value per requested key, in order
+        Record mapValues = new Record(Map.of("mapbin", Collections.nCopies(MAX_BATCH, value)), 1, 0);
+        cdtStore = new FakeAerospikeClient.CdtStore(FakeAerospikeClient.create(mapValues));
+        cdtStore.init(null, new Properties(), "batch");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        recordStore.close();
+        cdtStore.close();
+    }
+
+    @Benchmark
+    public Map<String, MetadataAwareValue<String>> recordLoadAll() {
+        return recordStore.loadAll(keys);
+    }
+
+    @Benchmark
+    public void recordStoreAll() {
+        recordStore.storeAll(new HashMap<>(recordEntries));
+    }
+
+    @Benchmark
+    public Map<String, String> cdtLoadAll() {
+        return cdtStore.loadAll(keys);
+    }
+
+    @Benchmark
+    public void cdtStoreAll() {
+        cdtStore.storeAll(new HashMap<>(entries));
+    }
+}
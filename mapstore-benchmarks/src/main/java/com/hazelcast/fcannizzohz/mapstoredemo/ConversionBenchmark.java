@@ -0,0 +1,94 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key and value mapping of the record and CDT stores, one entry per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    private StringStringRecordMapStore recordStore;
+    private StringStringCdtMapStore cdtStore;
+
+    private String key;
+    private String value;
+    private Key aerospikeKey;
+    private Record record;
+    private Value mapValue;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        key = "key-42";
+        value = "v".repeat(valueSize);
+        record = new Record(Map.of("value", value), 1, 0);
+
+        recordStore = new FakeAerospikeClient.RecordStore(FakeAerospikeClient.create(record));
+        recordStore.init(null, new Properties(), "conversion");
+        cdtStore = new FakeAerospikeClient.CdtStore(FakeAerospikeClient.create(record));
+        cdtStore.init(null, new Properties(), "conversion");
+
+        aerospikeKey = recordStore.toAerospikeKey(key);
+        mapValue = cdtStore.toAerospikeMapValue(value);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        recordStore.close();
+        cdtStore.close();
+    }
+
+    @Benchmark
+    public Key toAerospikeKey() {
+        return recordStore.toAerospikeKey(key);
+    }
+
+    @Benchmark
+    public Bin[] toBins() {
+        return recordStore.toBins(key, value);
+    }
+
+    @Benchmark
+    public String fromRecord() {
+        return recordStore.fromRecord(aerospikeKey, key, record);
+    }
+
+    @Benchmark
+    public Value toAerospikeMapKey() {
+        return cdtStore.toAerospikeMapKey(key);
+    }
+
+    @Benchmark
+    public String fromAerospikeMapValue() {
+        return cdtStore.fromAerospikeMapValue(key, mapValue);
+    }
+}
@@ -0,0 +1,123 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.BatchRecord;
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.policy.ClientPolicy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * In-process stand-in for {@link IAerospikeClient}: every read returns the same canned
+ * record, every write succeeds, and nothing leaves the JVM. The stores run their whole
+ * request building and result mapping against it, so what is measured is the MapStore's
+ * own cost, repeatable without a server.
+ * <p/>
+ * Supported calls: get / getHeader (single and batch), operate (single and batch),
+ * delete, isConnected, close. Anything else throws {@link UnsupportedOperationException}.
+ */
+final class FakeAerospikeClient implements InvocationHandler {
+
+    private final Record reply;
+
+    private FakeAerospikeClient(Record reply) {
+        this.reply = reply;
+    }
+
+    /**
+     * A client answering every read and single-record operate with {@code reply}.
+     */
+    static IAerospikeClient create(Record reply) {
+        return (IAerospikeClient) Proxy.newProxyInstance(IAerospikeClient.class.getClassLoader(),
+                new Class<?>[] {IAerospikeClient.class}, new FakeAerospikeClient(reply));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        Class<?>[] types = method.getParameterTypes();
+        switch (name) {
+            case "isConnected":
+                return true;
+            case "close":
+                return null;
+            case "get":
+            case "getHeader":
+                if (types.length > 1 && types[1] == Key[].class) {
+                    Record[] records = new Record[((Key[]) args[1]).length];
+                    Arrays.fill(records, reply);
+                    return records;
+                }
+                if (types.length > 1 && types[1] == Key.class) {
+                    return reply;
+                }
+                break;
+            case "operate":
+                if (types.length == 2 && types[1] == List.class) {
+                    for (Object br : (List<?>) args[1]) {
+                        ((BatchRecord) br).resultCode = ResultCode.OK;
+                    }
+                    return true;
+                }
+                if (types.length == 3 && types[1] == Key.class) {
+                    return reply;
+                }
+                break;
+            case "delete":
+                if (types.length == 2 && types[1] == Key.class) {
+                    return true;
+                }
+                break;
+            case "toString":
+                return "FakeAerospikeClient";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                break;
+        }
+        throw new UnsupportedOperationException("not supported by the fake client: " + method);
+    }
+
+    /**
+     * String / string record store on the given client instead of one from the registry.
+     */
+    static class RecordStore extends StringStringRecordMapStore {
+        private final IAerospikeClient client;
+
+        RecordStore(IAerospikeClient client) {
+            this.client = client;
+        }
+
+        @Override
+        protected AerospikeClientRegistry.Lease acquireClient(Properties properties, ClientPolicy clientPolicy,
+                                                              String mapName) {
+            return AerospikeClientRegistry.unmanaged(client, null);
+        }
+    }
+
+    /**
+     * String / string CDT store on the given client instead of one from the registry.
+     */
+    static class CdtStore extends StringStringCdtMapStore {
+        private final IAerospikeClient client;
+
+        CdtStore(IAerospikeClient client) {
+            this.client = client;
+        }
+
+        @Override
+        protected AerospikeClientRegistry.Lease acquireClient(Properties properties, ClientPolicy clientPolicy,
+                                                              String mapName) {
+            return AerospikeClientRegistry.unmanaged(client, null);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.IAerospikeClient;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.MapStoreFactory;
+import com.hazelcast.test.TestHazelcastInstanceFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test of the stores: an embedded Hazelcast cluster (mock network) with
+ * a MapStore on a {@link SimulatedAerospikeClient}, driven by client threads for a fixed
+ * time, per scenario:
+ *  - record / cdt layout, see {@link AbstractAerospikeRecordMapStore} and
+ *    {@link AbstractAerospikeCdtMapStore}
+ *  - write-through and write-behind: {@code set} of random keys
+ *  - read-eager and read-lazy: initial load of the keyspace, then {@code get} of random keys
+ *    from a range {@code readFactor} times larger, so part of the reads load through the store
+ * <p/>
+ * Per scenario it reports throughput and latency percentiles as seen by the callers, the
+ * initial load (read scenarios) or final flush (write-behind) time, and the store's own
+ * calls from {@link MapStoreMetrics}.
+ * <p/>
+ * Settings, as system properties:
+ *  - harness.scenarios       = comma separated scenario names, or all (default: all)
+ *  - harness.members         = cluster members (default: 2)
+ *  - harness.threads         = caller threads (default: 16)
+ *  - harness.warmupSeconds   = unmeasured run before each scenario (default: 3)
+ *  - harness.durationSeconds = measured run (default: 10)
+ *  - harness.keys            = keyspace of the stand-in (default: 10000)
+ *  - harness.readFactor      = read key range / keyspace (default: 10)
+ *  - harness.valueSize       = value length in characters (default: 100)
+ *  - harness.writeDelaySeconds / harness.writeBatchSize = write-behind settings (default: 1 / 1000)
+ *  - sim.latencyMicros, sim.jitterMicros, sim.errorRate = stand-in behaviour (default: 500 / 250 / 0)
+ *  - aerospike.*             = passed on to the stores
+ * <p/>
+ * Run: {@code java -cp target/benchmarks.jar com.hazelcast.fcannizzohz.mapstoredemo.LoadHarness}
+ */
+public final class LoadHarness {
+
+    enum Mode {
+        WRITE_THROUGH("write-through"),
+        WRITE_BEHIND("write-behind"),
+        READ_EAGER("read-eager"),
+        READ_LAZY("read-lazy");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+    }
+
+    record Scenario(String layout, Mode mode) {
+        String name() {
+            return layout + "/" + mode.label;
+        }
+    }
+
+    private final int members = Integer.getInteger("harness.members", 2);
+    private final int threads = Integer.getInteger("harness.threads", 16);
+    private final int warmupSeconds = Integer.getInteger("harness.warmupSeconds", 3);
+    private final int durationSeconds = Integer.getInteger("harness.durationSeconds", 10);
+    private final int keys = Integer.getInteger("harness.keys", 10_000);
+    private final int readFactor = Integer.getInteger("harness.readFactor", 10);
+    private final int valueSize = Integer.getInteger("harness.valueSize", 100);
+    private final int writeDelaySeconds = Integer.getInteger("harness.writeDelaySeconds", 1);
+    private final int writeBatchSize = Integer.getInteger("harness.writeBatchSize", 1000);
+    private final long latencyMicros = Long.getLong("sim.latencyMicros", 500);
+    private final long jitterMicros = Long.getLong("sim.jitterMicros", 250);
+    private final double errorRate = Double.parseDouble(System.getProperty("sim.errorRate", "0"));
+
+    private final String value = "v".repeat(valueSize);
+    private final String[] readKeys;
+
+    private LoadHarness() {
+        readKeys = new String[keys * readFactor];
+        for (int i = 0; i < readKeys.length; i++) {
+            readKeys[i] = SimulatedAerospikeClient.key(i);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadHarness().run(System.getProperty("harness.scenarios", "all"));
+        System.exit(0);
+    }
+
+    private void run(String selection) throws Exception {
+        List<Scenario> scenarios = new ArrayList<>();
+        for (String layout : List.of("record", "cdt")) {
+            for (Mode mode : Mode.values()) {
+                Scenario s = new Scenario(layout, mode);
+                if (selection.equals("all") || Arrays.asList(selection.split(",")).contains(s.name())) {
+                    scenarios.add(s);
+                }
+            }
+        }
+        System.out.printf(Locale.ROOT, "members=%d threads=%d keys=%d value=%dB latency=%dus jitter=%dus errors=%.3f%n",
+                members, threads, keys, valueSize, latencyMicros, jitterMicros, errorRate);
+        System.out.printf(Locale.ROOT, "%-26s %10s %9s %9s %9s %9s %8s %10s%n",
+                "scenario", "ops/s", "p50 us", "p99 us", "p99.9 us", "max us", "errors", "load/flush");
+        for (Scenario scenario : scenarios) {
+            run(scenario);
+        }
+    }
+
+    private void run(Scenario scenario) throws Exception {
+        IAerospikeClient client = SimulatedAerospikeClient.create(latencyMicros, jitterMicros, errorRate, keys,
+                valueSize);
+        List<MapStoreMetrics> stores = new CopyOnWriteArrayList<>();
+        TestHazelcastInstanceFactory factory = new TestHazelcastInstanceFactory(members);
+        try {
+            HazelcastInstance[] cluster = factory.newInstances(config(scenario, client, stores), members);
+            String mapName = "harness";
+            boolean read = scenario.mode() == Mode.READ_EAGER || scenario.mode() == Mode.READ_LAZY;
+
+            long loadNanos = 0;
+            if (read) {
+                long start = System.nanoTime();
+                cluster[0].getMap(mapName).size();
+                loadNanos = System.nanoTime() - start;
+            }
+
+            drive(cluster, mapName, read, TimeUnit.SECONDS.toNanos(warmupSeconds));
+            Result result = drive(cluster, mapName, read, TimeUnit.SECONDS.toNanos(durationSeconds));
+
+            if (scenario.mode() == Mode.WRITE_BEHIND) {
+                long start = System.nanoTime();
+                cluster[0].getMap(mapName).flush();
+                loadNanos = System.nanoTime() - start;
+            }
+            report(scenario, result, loadNanos, stores);
+        } finally {
+            factory.shutdownAll();
+        }
+    }
+
+    private Config config(Scenario scenario, IAerospikeClient client, List<MapStoreMetrics> stores) {
+        Properties properties = new Properties();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("aerospike.")) {
+                properties.setProperty(name, System.getProperty(name));
+            }
+        }
+
+        // raw: the record store is an EntryStore, its values are MetadataAwareValue<String>
+        @SuppressWarnings("rawtypes")
+        MapStoreFactory storeFactory = (mapName, props) -> {
+            if (scenario.layout().equals("cdt")) {
+                return new FakeAerospikeClient.CdtStore(client) {
+                    @Override
+                    protected void afterInit(HazelcastInstance hazelcastInstance, Properties p, String name) {
+                        stores.add(metrics());
+                    }
+                };
+            }
+            return new FakeAerospikeClient.RecordStore(client) {
+                @Override
+                protected void afterInit(HazelcastInstance hazelcastInstance, Properties p, String name) {
+                    stores.add(metrics());
+                }
+            };
+        };
+
+        MapStoreConfig mapStoreConfig = new MapStoreConfig()
+                .setEnabled(true)
+                .setFactoryImplementation(storeFactory)
+                .setProperties(properties)
+                .setInitialLoadMode(scenario.mode() == Mode.READ_EAGER
+                        ? MapStoreConfig.InitialLoadMode.EAGER
+                        : MapStoreConfig.InitialLoadMode.LAZY);
+        if (scenario.mode() == Mode.WRITE_BEHIND) {
+            mapStoreConfig.setWriteDelaySeconds(writeDelaySeconds)
+                          .setWriteBatchSize(writeBatchSize)
+                          .setWriteCoalescing(true);
+        }
+
+        return new Config()
+                .setClusterName("harness-" + scenario.layout() + "-" + scenario.mode().label)
+                .setLicenseKey(System.getenv("HZ_LICENSEKEY"))
+                .addMapConfig(new MapConfig("harness").setMapStoreConfig(mapStoreConfig));
+    }
+
+    // ---------------------------------------------------------
+    // Load
+    // ---------------------------------------------------------
+
+    private record Result(long ops, long errors, long nanos, long[] latencies) {
+    }
+
+    private Result drive(HazelcastInstance[] cluster, String mapName, boolean read, long nanos)
+            throws InterruptedException {
+        long[][] samples = new long[threads][];
+        int[] counts = new int[threads];
+        long[] errors = new long[threads];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        long deadline = start + nanos;
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            IMap<String, String> map = cluster[t % cluster.length].getMap(mapName);
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] latencies = new long[1 << 16];
+                int n = 0;
+                long failed = 0;
+                long now = System.nanoTime();
+                while (now < deadline) {
+                    try {
+                        if (read) {
+                            map.get(readKeys[random.nextInt(readKeys.length)]);
+                        } else {
+                            map.set(readKeys[random.nextInt(keys)], value);
+                        }
+                    } catch (RuntimeException e) {
+                        failed++;
+                    }
+                    long end = System.nanoTime();
+                    if (n == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, n * 2);
+                    }
+                    latencies[n++] = end - now;
+                    now = end;
+                }
+                samples[id] = latencies;
+                counts[id] = n;
+                errors[id] = failed;
+            }, "harness-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int total = 0;
+        long failed = 0;
+        for (int t = 0; t < threads; t++) {
+            total += counts[t];
+            failed += errors[t];
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(samples[t], 0, all, pos, counts[t]);
+            pos += counts[t];
+        }
+        Arrays.sort(all);
+        return new Result(total, failed, elapsed, all);
+    }
+
+    // ---------------------------------------------------------
+    // Report
+    // ---------------------------------------------------------
+
+    private static void report(Scenario scenario, Result result, long loadNanos, List<MapStoreMetrics> stores) {
+        System.out.printf(Locale.ROOT, "%-26s %10.0f %9.1f %9.1f %9.1f %9.1f %8d %10s%n",
+                scenario.name(),
+                result.ops() * 1e9 / result.nanos(),
+                micros(percentile(result.latencies(), 0.5)),
+                micros(percentile(result.latencies(), 0.99)),
+                micros(percentile(result.latencies(), 0.999)),
+                micros(result.latencies().length == 0 ? 0 : result.latencies()[result.latencies().length - 1]),
+                result.errors(),
+                loadNanos > 0 ? TimeUnit.NANOSECONDS.toMillis(loadNanos) + " ms" : "-");
+
+        for (MapStoreMetrics.Op op : MapStoreMetrics.Op.values()) {
+            long count = 0;
+            long errors = 0;
+            long p99 = 0;
+            double batched = 0;
+            for (MapStoreMetrics metrics : stores) {
+                MapStoreMetrics.Stats stats = metrics.stats(op);
+                count += stats.count();
+                errors += stats.errors();
+                p99 = Math.max(p99, stats.p99Nanos());
+                batched += stats.meanBatch() * stats.count();
+            }
+            if (count > 0) {
+                System.out.printf(Locale.ROOT, "    store %-12s %9d calls %7.1f keys/call  p99 <= %9.1f us %6d errors%n",
+                        op.name().toLowerCase(Locale.ROOT), count, batched / count, micros(p99), errors);
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(q * sorted.length) - 1)];
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
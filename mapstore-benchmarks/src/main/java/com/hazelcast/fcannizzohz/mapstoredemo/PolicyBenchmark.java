@@ -0,0 +1,67 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.policy.WritePolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the policies of a store from properties, as init() does, against the copy a
+ * call makes when it needs a policy with one field changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyBenchmark {
+
+    private Properties defaults;
+    private Properties tuned;
+    private AerospikePolicies policies;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        defaults = new Properties();
+
+        tuned = new Properties();
+        tuned.setProperty("aerospike.policy.totalTimeout", "1000");
+        tuned.setProperty("aerospike.policy.maxRetries", "2");
+        tuned.setProperty("aerospike.policy.read.totalTimeout", "50");
+        tuned.setProperty("aerospike.policy.read.replica", "SEQUENCE");
+        tuned.setProperty("aerospike.policy.batch.allowInlineSSD", "true");
+        tuned.setProperty("aerospike.policy.write.compress", "true");
+        tuned.setProperty("aerospike.policy.write.commitLevel", "COMMIT_MASTER");
+
+        policies = new AerospikePolicies(tuned);
+    }
+
+    @Benchmark
+    public AerospikePolicies createDefault() {
+        return new AerospikePolicies(defaults);
+    }
+
+    @Benchmark
+    public AerospikePolicies createTuned() {
+        return new AerospikePolicies(tuned);
+    }
+
+    @Benchmark
+    public WritePolicy copyWritePolicy() {
+        WritePolicy policy = new WritePolicy(policies.write);
+        policy.expiration = 60;
+        return policy;
+    }
+}
@@ -0,0 +1,331 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRecord;
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.ScanCallback;
+import com.aerospike.client.query.PartitionFilter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for an Aerospike cluster, for load tests of the stores.
+ * <p/>
+ * Every call waits {@code latencyMicros} plus a uniform random share of {@code jitterMicros},
+ * then fails with {@link ResultCode#TIMEOUT} with probability {@code errorRate}. A batch
+ * call waits once, like a batch on one node.
+ * <p/>
+ * The stand-in holds no data. The keyspace is {@code keys} keys named {@link #key(int)}:
+ * scans and CDT key listings return them, and every read, of these keys or any other,
+ * finds a string value of {@code valueSize} characters. Writes and deletes succeed and are
+ * dropped. Record scans honour the partition range of their filter; CDT key listings
+ * return the whole keyspace from the first bucket record. CDT snapshots are not simulated.
+ * <p/>
+ * Supported calls: get / getHeader (single and batch), operate (single and batch),
+ * delete, scanPartitions, isConnected, close.
+ */
+final class SimulatedAerospikeClient implements InvocationHandler {
+
+    private static final int PARTITIONS = 4096;
+
+    // msgpack-encoded CDT map read commands, see MapOperation
+    private static final int GET_BY_KEY = 97;
+    private static final int GET_BY_INDEX_RANGE = 104;
+    private static final int GET_BY_KEY_LIST = 107;
+    private static final int GET_BY_KEY_REL_INDEX_RANGE = 109;
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final double errorRate;
+    private final String value;
+    private final String[] keys;
+    private final Record written = new Record(Collections.emptyMap(), 1, 0);
+
+    /**
+     * Keys of the keyspace by partition, per namespace and set.
+     */
+    private final Map<String, List<Key>[]> partitions = new ConcurrentHashMap<>();
+
+    private SimulatedAerospikeClient(long latencyMicros, long jitterMicros, double errorRate, int keys,
+                                     int valueSize) {
+        this.latencyNanos = latencyMicros * 1000;
+        this.jitterNanos = jitterMicros * 1000;
+        this.errorRate = errorRate;
+        this.value = "v".repeat(valueSize);
+        this.keys = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            this.keys[i] = key(i);
+        }
+    }
+
+    static IAerospikeClient create(long latencyMicros, long jitterMicros, double errorRate, int keys,
+                                   int valueSize) {
+        return (IAerospikeClient) Proxy.newProxyInstance(IAerospikeClient.class.getClassLoader(),
+                new Class<?>[] {IAerospikeClient.class},
+                new SimulatedAerospikeClient(latencyMicros, jitterMicros, errorRate, keys, valueSize));
+    }
+
+    /**
+     * Name of the {@code i}-th key; names sort like their index.
+     */
+    static String key(int i) {
+        String digits = Integer.toString(i);
+        return "key-" + "0".repeat(Math.max(0, 9 - digits.length())) + digits;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        Class<?>[] types = method.getParameterTypes();
+        switch (name) {
+            case "isConnected":
+                return true;
+            case "close":
+                return null;
+            case "toString":
+                return "SimulatedAerospikeClient";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "get":
+            case "getHeader":
+                if (types.length > 1 && types[1] == Key[].class) {
+                    simulate();
+                    Key[] batch = (Key[]) args[1];
+                    Record[] records = new Record[batch.length];
+                    Arrays.fill(records, valueRecord(binNames(types, args)));
+                    return records;
+                }
+                if (types.length > 1 && types[1] == Key.class) {
+                    simulate();
+                    return valueRecord(binNames(types, args));
+                }
+                break;
+            case "operate":
+                if (types.length == 2 && types[1] == List.class) {
+                    simulate();
+                    for (Object br : (List<?>) args[1]) {
+                        ((BatchRecord) br).resultCode = ResultCode.OK;
+                    }
+                    return true;
+                }
+                if (types.length == 3 && types[1] == Key.class) {
+                    simulate();
+                    return operate((Key) args[1], (Operation[]) args[2]);
+                }
+                break;
+            case "delete":
+                if (types.length == 2 && types[1] == Key.class) {
+                    simulate();
+                    return true;
+                }
+                break;
+            case "scanPartitions":
+                if (types.length == 6 && types[4] == ScanCallback.class) {
+                    simulate();
+                    scan((PartitionFilter) args[1], (String) args[2], (String) args[3], (ScanCallback) args[4],
+                            (String[]) args[5]);
+                    return null;
+                }
+                break;
+            default:
+                break;
+        }
+        throw new UnsupportedOperationException("not supported by the simulated client: " + method);
+    }
+
+    private void simulate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long nanos = latencyNanos + (jitterNanos > 0 ? random.nextLong(jitterNanos) : 0);
+        if (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+        if (errorRate > 0 && random.nextDouble() < errorRate) {
+            throw new AerospikeException(ResultCode.TIMEOUT, "simulated timeout");
+        }
+    }
+
+    private static String[] binNames(Class<?>[] types, Object[] args) {
+        return types.length > 2 && types[types.length - 1] == String[].class ? (String[]) args[types.length - 1] : null;
+    }
+
+    private Record valueRecord(String[] binNames) {
+        if (binNames == null || binNames.length == 0) {
+            return new Record(Map.of("value", value), 1, 0);
+        }
+        Map<String, Object> bins = new HashMap<>();
+        for (String bin : binNames) {
+            bins.put(bin, value);
+        }
+        return new Record(bins, 1, 0);
+    }
+
+    // ---------------------------------------------------------
+    // Single-record operate: CDT map reads, anything else is a write
+    // ---------------------------------------------------------
+
+    private Record operate(Key key, Operation[] ops) {
+        Operation op = ops[0];
+        if (op.type != Operation.Type.MAP_READ || !(op.value.getObject() instanceof byte[] packed)) {
+            return written;
+        }
+        MsgPack in = new MsgPack(packed);
+        in.readArrayHeader();
+        int command = (int) in.readInt();
+        in.readInt(); // return type
+        Object result;
+        switch (command) {
+            case GET_BY_KEY:
+                result = value;
+                break;
+            case GET_BY_KEY_LIST:
+                result = Collections.nCopies(in.readArrayHeader(), value);
+                break;
+            case GET_BY_INDEX_RANGE: {
+                int index = (int) in.readInt();
+                result = keyRange(key, index, (int) in.readInt());
+                break;
+            }
+            case GET_BY_KEY_REL_INDEX_RANGE: {
+                int from = Arrays.binarySearch(keys, in.readString());
+                int index = (int) in.readInt();
+                result = keyRange(key, (from >= 0 ? from : -from - 1) + index, (int) in.readInt());
+                break;
+            }
+            default:
+                throw new UnsupportedOperationException("CDT command not simulated: " + command);
+        }
+        return new Record(Map.of(op.binName, result), 1, 0);
+    }
+
+    private List<String> keyRange(Key bucketKey, int from, int count) {
+        String recordKey = String.valueOf(bucketKey.userKey);
+        if (recordKey.contains("#") && !recordKey.endsWith("#0")) {
+            return List.of();
+        }
+        int start = Math.min(Math.max(0, from), keys.length);
+        return Arrays.asList(keys).subList(start, Math.min(keys.length, start + count));
+    }
+
+    // ---------------------------------------------------------
+    // Record scans
+    // ---------------------------------------------------------
+
+    private void scan(PartitionFilter filter, String namespace, String setName, ScanCallback callback,
+                      String[] binNames) {
+        List<Key>[] byPartition = partitions.computeIfAbsent(namespace + "." + setName,
+                ignored -> keysByPartition(namespace, setName));
+        Record record = valueRecord(binNames);
+        for (int p = filter.getBegin(); p < filter.getBegin() + filter.getCount(); p++) {
+            for (Key key : byPartition[p]) {
+                callback.scanCallback(key, record);
+            }
+        }
+    }
+
+    private List<Key>[] keysByPartition(String namespace, String setName) {
+        @SuppressWarnings("unchecked")
+        List<Key>[] byPartition = new List[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            byPartition[p] = new ArrayList<>();
+        }
+        for (String k : keys) {
+            Key key = new Key(namespace, setName, k);
+            int partition = ((key.digest[0] & 0xFF) | ((key.digest[1] & 0xFF) << 8)) & (PARTITIONS - 1);
+            byPartition[partition].add(key);
+        }
+        return byPartition;
+    }
+
+    /**
+     * Just enough msgpack to read the arguments of a CDT map read: ints, arrays and the
+     * Aerospike string encoding (a particle type byte before the UTF-8 bytes).
+     */
+    private static final class MsgPack {
+        private final byte[] buf;
+        private int pos;
+
+        MsgPack(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readArrayHeader() {
+            int b = buf[pos++] & 0xFF;
+            if ((b & 0xF0) == 0x90) {
+                return b & 0x0F;
+            }
+            if (b == 0xDC) {
+                return (int) readBigEndian(2);
+            }
+            if (b == 0xDD) {
+                return (int) readBigEndian(4);
+            }
+            throw new IllegalStateException("msgpack array expected: " + b);
+        }
+
+        long readInt() {
+            int b = buf[pos++] & 0xFF;
+            if (b <= 0x7F) {
+                return b;
+            }
+            if (b >= 0xE0) {
+                return (byte) b;
+            }
+            return switch (b) {
+                case 0xCC -> readBigEndian(1);
+                case 0xCD -> readBigEndian(2);
+                case 0xCE -> readBigEndian(4);
+                case 0xCF, 0xD3 -> readBigEndian(8);
+                case 0xD0 -> (byte) readBigEndian(1);
+                case 0xD1 -> (short) readBigEndian(2);
+                case 0xD2 -> (int) readBigEndian(4);
+                default -> throw new IllegalStateException("msgpack int expected: " + b);
+            };
+        }
+
+        String readString() {
+            int b = buf[pos++] & 0xFF;
+            int length;
+            if ((b & 0xE0) == 0xA0) {
+                length = b & 0x1F;
+            } else if (b == 0xD9 || b == 0xC4) {
+                length = (int) readBigEndian(1);
+            } else if (b == 0xDA || b == 0xC5) {
+                length = (int) readBigEndian(2);
+            } else if (b == 0xDB || b == 0xC6) {
+                length = (int) readBigEndian(4);
+            } else {
+                throw new IllegalStateException("msgpack string expected: " + b);
+            }
+            // skip the particle type
+            String s = new String(buf, pos + 1, length - 1, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        private long readBigEndian(int bytes) {
+            long v = 0;
+            for (int i = 0; i < bytes; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+    }
+}
@@ -1,25 +1,32 @@
 package com.hazelcast.fcannizzohz.mapstoredemo;
 
-import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.IAerospikeClient;
 import com.aerospike.client.AerospikeException;
 import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
 import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
 import com.aerospike.client.Value;
 import com.aerospike.client.policy.ClientPolicy;
+import com.aerospike.client.policy.Policy;
 import com.aerospike.client.policy.WritePolicy;
 import com.aerospike.client.cdt.MapOperation;
 import com.aerospike.client.cdt.MapPolicy;
 import com.aerospike.client.cdt.MapOrder;
 import com.aerospike.client.cdt.MapWriteFlags;
 import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.exp.Exp;
+import com.aerospike.client.exp.Expression;
+import com.aerospike.client.util.Crypto;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.fcannizzohz.mapstoredemo.MapStoreMetrics.Op;
 import com.hazelcast.map.MapLoaderLifecycleSupport;
 import com.hazelcast.map.MapStore;
-import com.hazelcast.spi.exception.RetryableHazelcastException;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Abstract MapStore that maps a Hazelcast IMap<K,V> into a single
@@ -28,13 +35,54 @@ import java.util.*;
  * - One Aerospike record per Hazelcast map.
  * - Each IMap entry (K,V) is a (mapKey → mapValue) entry in that bin.
  * <p/>
+ * With "aerospike.cdt.buckets" = N > 1 the map is sharded over N records instead,
+ * "recordKey#0" .. "recordKey#N-1", and each map key is hashed into one of them. Writes
+ * then contend on N record locks and the map can grow past the maximum record size;
+ * loadAll() / storeAll() / deleteAll() send one operate per bucket, up to
+ * "aerospike.cdt.parallelism" at a time (default: min(N, available processors)), on the
+ * store's {@link IoExecutor}.
+ * The number of buckets is part of the data layout: changing it needs a data migration.
+ * <p/>
+ * Within a bucket, loadAll() / storeAll() / deleteAll() split their keys into operates of at
+ * most "aerospike.cdt.maxRequestBytes" estimated bytes (default 512 KiB), so large batches
+ * stay under the server's request and write-block limits; a failed chunk only fails its own
+ * keys. loadAll() budgets for the values it expects from the average size seen so far.
+ * An entry larger than the budget is sent on its own.
+ * <p/>
+ * Small, read-mostly maps can be served from a local copy of the bin that is validated
+ * against the record generation, see {@link CdtSnapshots}.
+ * <p/>
+ * Concurrent store() / delete() calls on the same bucket are group-committed: while one
+ * operate is in flight, the calls that arrive are queued and written together by the next
+ * operate, see {@link CdtWriteCombiner}. Each call still returns only once its own entry is
+ * written. Disable with "aerospike.cdt.combine.enabled" = false.
+ * <p/>
  * All metadata (namespace, set, record primary key, bin name, etc.)
  * comes from MapStore properties.
+ * <p/>
+ * The Aerospike client is shared with the other maps of the member that use the same
+ * hosts and client settings, see {@link AerospikeClientRegistry}.
+ * <p/>
+ * String and bytes map values above "aerospike.compression.threshold" can be compressed
+ * transparently, see {@link ValueCompression}.
+ * <p/>
+ * Every operation records its latency, batch size and errors, published as Hazelcast
+ * metrics, see {@link MapStoreMetrics}.
  */
 public abstract class AbstractAerospikeCdtMapStore<K, V>
         implements MapStore<K, V>, MapLoaderLifecycleSupport, Closeable {
 
-    protected AerospikeClient client;
+    protected IAerospikeClient client;
+
+    /**
+     * Hold on the (by default shared) client, see {@link AerospikeClientRegistry}.
+     */
+    private AerospikeClientRegistry.Lease clientLease;
+
+    /**
+     * Policies built from properties in init(), see {@link AerospikePolicies}.
+     */
+    private AerospikePolicies policies;
 
     protected String namespace;
     protected String setName;
@@ -46,6 +94,87 @@ public abstract class AbstractAerospikeCdtMapStore<K, V>
      */
     protected Key recordKey;
 
+    /**
+     * Default byte budget of one operate: half of the smallest write-block size (1 MiB),
+     * leaving room for the record's other bins and for estimation error.
+     */
+    private static final int DEFAULT_MAX_REQUEST_BYTES = 512 * 1024;
+
+    /**
+     * Per-entry allowance for the msgpack headers around a map key / value.
+     */
+    private static final int ENTRY_OVERHEAD = 16;
+
+    /**
+     * Number of records the map is sharded over ("aerospike.cdt.buckets", default 1).
+     */
+    protected int buckets;
+
+    /**
+     * Records holding the entries of each bucket; just {@link #recordKey} with one bucket.
+     */
+    private Key[] bucketKeys;
+
+    /**
+     * Local copies of the bucket records; null unless "aerospike.cdt.snapshot.enabled".
+     */
+    private CdtSnapshots snapshots;
+
+    /**
+     * Group commit of store() / delete(); null if "aerospike.cdt.combine.enabled" is false.
+     */
+    private CdtWriteCombiner combiner;
+
+    /**
+     * Bin that seals a bucket record once set, see {@link #operateWrite}; null without
+     * "aerospike.cdt.guardBin".
+     */
+    private String guardBin;
+
+    /**
+     * Filter of every write operate: "the guard bin is not set"; null without
+     * "aerospike.cdt.guardBin".
+     */
+    private Expression writeGuard;
+
+    /**
+     * Runs the per-bucket operates of loadAll() / storeAll() / deleteAll(), at most
+     * "bucketParallelism" of them at a time.
+     */
+    private IoExecutor io;
+    private int bucketParallelism = 1;
+
+    /**
+     * Capacity of the buffer between the record read and Hazelcast in loadAllKeys().
+     */
+    private int keyBufferSize;
+
+    /**
+     * Byte budget of one CDT read or write operate ("aerospike.cdt.maxRequestBytes"),
+     * see storeAll() / loadAll() / deleteAll().
+     */
+    private int maxRequestBytes;
+
+    /**
+     * Moving average of the stored size of a map value, used to size loadAll() reads.
+     */
+    private volatile int avgValueBytes;
+
+    /**
+     * Map keys read per operate in loadAllKeys() ("aerospike.cdt.keyPageSize", default 10000).
+     */
+    private int keyPageSize;
+
+    /**
+     * Codec layer under the map value hooks, see {@link ValueCompression}.
+     */
+    private ValueCompression compression;
+
+    /**
+     * Latency / error counters, see {@link MapStoreMetrics}.
+     */
+    private MapStoreMetrics metrics;
+
     // ---------------------------------------------------------
     // Lifecycle
     // ---------------------------------------------------------
@@ -58,22 +187,82 @@ public abstract class AbstractAerospikeCdtMapStore<K, V>
         this.namespace  = properties.getProperty("aerospike.namespace", "test");
         this.setName    = properties.getProperty("aerospike.set", mapName);
         this.mapBinName = properties.getProperty("aerospike.mapBinName", "mapbin");
-
-        String host = properties.getProperty("aerospike.host", "127.0.0.1");
-        int port    = Integer.parseInt(properties.getProperty("aerospike.port", "3000"));
+        this.keyBufferSize = KeyStream.bufferSize(properties);
+        this.maxRequestBytes = Integer.parseInt(properties.getProperty("aerospike.cdt.maxRequestBytes",
+                String.valueOf(DEFAULT_MAX_REQUEST_BYTES)));
+        if (maxRequestBytes <= 0) {
+            throw new IllegalArgumentException("aerospike.cdt.maxRequestBytes must be > 0: " + maxRequestBytes);
+        }
+        this.keyPageSize = Integer.parseInt(properties.getProperty("aerospike.cdt.keyPageSize", "10000"));
+        if (keyPageSize <= 0) {
+            throw new IllegalArgumentException("aerospike.cdt.keyPageSize must be > 0: " + keyPageSize);
+        }
+        this.policies = new AerospikePolicies(properties);
+        this.compression = new ValueCompression(properties);
+        this.metrics = new MapStoreMetrics(mapName, "cdt", compression);
 
         ClientPolicy clientPolicy = createClientPolicy(properties, mapName);
-        this.client = new AerospikeClient(clientPolicy, host, port);
+        this.clientLease = acquireClient(properties, clientPolicy, mapName);
+        if (CallGuard.isEnabled(properties)) {
+            CallGuard guard = new CallGuard(properties, "aerospike-cdt-" + mapName);
+            metrics.guard(guard);
+            this.client = guard.wrap(clientLease.client());
+        } else {
+            this.client = clientLease.client();
+        }
 
         this.recordKey = createRecordKey(properties, mapName);
+        this.buckets = Integer.parseInt(properties.getProperty("aerospike.cdt.buckets", "1"));
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("aerospike.cdt.buckets must be > 0: " + buckets);
+        }
+        this.bucketKeys = new Key[buckets];
+        if (buckets == 1) {
+            bucketKeys[0] = recordKey;
+        } else {
+            for (int i = 0; i < buckets; i++) {
+                bucketKeys[i] = createBucketKey(recordKey, i);
+            }
+            this.bucketParallelism = Integer.parseInt(properties.getProperty("aerospike.cdt.parallelism",
+                    String.valueOf(Math.min(buckets, Runtime.getRuntime().availableProcessors()))));
+            if (bucketParallelism <= 0) {
+                throw new IllegalArgumentException("aerospike.cdt.parallelism must be > 0: " + bucketParallelism);
+            }
+        }
+        this.io = new IoExecutor(properties, "aerospike-cdt-" + mapName);
+
+        this.guardBin = properties.getProperty("aerospike.cdt.guardBin");
+        if (guardBin != null) {
+            this.writeGuard = Exp.build(Exp.not(Exp.binExists(guardBin)));
+        }
 
         afterInit(hazelcastInstance, properties, mapName);
+
+        if (CdtSnapshots.isEnabled(properties)) {
+            this.snapshots = new CdtSnapshots(properties, client, readPolicy(), bucketKeys, mapBinName, guardBin);
+        }
+        if (CdtWriteCombiner.isEnabled(properties)) {
+            this.combiner = new CdtWriteCombiner(properties, buckets, maxRequestBytes, this::writeCombined);
+        }
+        if (MapStoreMetrics.isEnabled(properties)) {
+            metrics.register(hazelcastInstance);
+        }
     }
 
     protected ClientPolicy createClientPolicy(Properties properties, String mapName) {
         return new ClientPolicy();
     }
 
+    /**
+     * Hold on the client used by this store; by default a (shared) client from
+     * {@link AerospikeClientRegistry}. Override to plug in another {@link IAerospikeClient},
+     * e.g. through {@link AerospikeClientRegistry#unmanaged}.
+     */
+    protected AerospikeClientRegistry.Lease acquireClient(Properties properties, ClientPolicy clientPolicy,
+                                                          String mapName) {
+        return AerospikeClientRegistry.acquire(properties, clientPolicy, mapName);
+    }
+
     /**
      * Build the Aerospike primary key for the CDT map record from properties.
      * <p/>
@@ -111,10 +300,20 @@ public abstract class AbstractAerospikeCdtMapStore<K, V>
         }
     }
 
+    /**
+     * Releases this map's hold on the shared client; the client is closed
+     * once no map uses it any more.
+     */
     @Override
     public void close() throws IOException {
-        if (client != null && client.isConnected()) {
-            client.close();
+        if (metrics != null) {
+            metrics.deregister();
+        }
+        if (io != null) {
+            io.shutdown();
+        }
+        if (clientLease != null) {
+            clientLease.release();
         }
     }
 
@@ -122,126 +321,214 @@ public abstract class AbstractAerospikeCdtMapStore<K, V>
     // MapStore operations – use CDT Map under the hood
     // ---------------------------------------------------------
 
+    /**
+     * With "aerospike.cdt.guardBin" set, a key of a sealed bucket fails with
+     * ResultCode.FILTERED_OUT rather than reading entries that may have moved elsewhere.
+     */
     @Override
     public final V load(K key) {
+        return load(key, true);
+    }
+
+    /**
+     * load() that also reads sealed buckets, for {@link HybridMapStore} while it migrates.
+     */
+    V loadUnguarded(K key) {
+        return load(key, false);
+    }
+
+    private V load(K key, boolean guarded) {
         if (key == null) {
             return null;
         }
 
+        long start = System.nanoTime();
         try {
             Value mapKey = toAerospikeMapKey(key);
-
-            Record record = client.operate(
-                    readOperatePolicy(),
-                    recordKey,
-                    MapOperation.getByKey(mapBinName, mapKey, MapReturnType.VALUE)
-            );
-
-            if (record == null) {
-                return null;
-            }
-
-            Object raw = record.getValue(mapBinName);
-            if (raw == null) {
-                return null;
+            long sent = System.nanoTime();
+            Object raw;
+
+            if (snapshots != null) {
+                raw = snapshots.get(bucketOf(mapKey), mapKey, guarded);
+            } else {
+                Record record = operateRead(bucketOf(mapKey), guarded,
+                        MapOperation.getByKey(mapBinName, mapKey, MapReturnType.VALUE));
+                raw = record != null ? record.getValue(mapBinName) : null;
             }
+            long network = metrics.network(sent);
 
-            return fromAerospikeMapValue(key, Value.get(raw));
+            V value = raw != null ? fromAerospikeMapValue(key, Value.get(compression.decode(raw))) : null;
+            metrics.done(Op.LOAD, start, network, 1);
+            return value;
         } catch (AerospikeException e) {
-            throw new RetryableHazelcastException("Aerospike load failed for key: " + key, e);
+            metrics.failed(Op.LOAD, start, 1, e);
+            throw CallGuard.failure("Aerospike load failed for key: " + key, e);
         }
     }
 
+    /**
+     * Fails like load() if one of the buckets read is sealed.
+     */
     @Override
     public final Map<K, V> loadAll(Collection<K> keys) {
+        return loadAll(keys, true);
+    }
+
+    /**
+     * loadAll() that also reads sealed buckets, for {@link HybridMapStore} while it migrates.
+     */
+    Map<K, V> loadAllUnguarded(Collection<K> keys) {
+        return loadAll(keys, false);
+    }
+
+    private Map<K, V> loadAll(Collection<K> keys, boolean guarded) {
         if (keys == null || keys.isEmpty()) {
             return Collections.emptyMap();
         }
 
-        try {
-            List<K> keyList = new ArrayList<>(keys);
-            List<Value> mapKeys = new ArrayList<>(keyList.size());
-            for (K k : keyList) {
-                mapKeys.add(toAerospikeMapKey(k));
-            }
-
-            Record record = client.operate(
-                    readOperatePolicy(),
-                    recordKey,
-                    MapOperation.getByKeyList(mapBinName, mapKeys, MapReturnType.VALUE)
-            );
+        long start = System.nanoTime();
+        LongAdder network = new LongAdder();
+        List<K>[] groups = groupByBucket(keys);
+        @SuppressWarnings("unchecked")
+        Map<K, V>[] loaded = new Map[buckets];
 
+        RuntimeException[] errors = forEachBucket(groups, (bucket, keyList) -> {
             Map<K, V> result = new HashMap<>(keyList.size());
-
-            if (record == null) {
-                return result;
-            }
-
-            Object raw = record.getValue(mapBinName);
-            if (raw == null) {
-                return result;
+            loaded[bucket] = result;
+
+            if (snapshots != null) {
+                long sent = System.nanoTime();
+                Map<Object, Object> entries = snapshots.entries(bucket, guarded);
+                network.add(metrics.network(sent));
+                for (K k : keyList) {
+                    Object raw = entries.get(CdtSnapshots.normalizeKey(toAerospikeMapKey(k).getObject()));
+                    V value = raw != null ? fromAerospikeMapValue(k, Value.get(compression.decode(raw))) : null;
+                    if (value != null) {
+                        result.put(k, value);
+                    }
+                }
+                return;
             }
 
-            @SuppressWarnings("unchecked")
-            List<Object> values = (List<Object>) raw;
-
+            // expected response size per key, learnt from earlier reads
+            int valueBytes = avgValueBytes;
+            int from = 0;
+            int bytes = 0;
+            List<Value> mapKeys = new ArrayList<>(keyList.size());
             for (int i = 0; i < keyList.size(); i++) {
-                Object elem = values.get(i);
-                if (elem == null) {
-                    continue;
-                }
-                V value = fromAerospikeMapValue(keyList.get(i), Value.get(elem));
-                if (value != null) {
-                    result.put(keyList.get(i), value);
+                Value mapKey = toAerospikeMapKey(keyList.get(i));
+                int size = mapKey.estimateSize() + valueBytes + ENTRY_OVERHEAD;
+                if (!mapKeys.isEmpty() && bytes + size > maxRequestBytes) {
+                    readChunk(bucket, guarded, keyList.subList(from, i), mapKeys, result, network);
+                    from = i;
+                    bytes = 0;
+                    mapKeys = new ArrayList<>(keyList.size() - i);
                 }
+                mapKeys.add(mapKey);
+                bytes += size;
             }
-
-            return result;
-        } catch (AerospikeException e) {
-            throw new RetryableHazelcastException(
-                    "Aerospike loadAll failed for " + keys.size() + " keys", e);
+            readChunk(bucket, guarded, keyList.subList(from, keyList.size()), mapKeys, result, network);
+        });
+
+        RuntimeException error = IoExecutor.firstError(errors);
+        if (error != null) {
+            metrics.failed(Op.LOAD_ALL, start, keys.size(), error);
+            throw CallGuard.failure(
+                    "Aerospike loadAll failed for " + keys.size() + " keys", error);
         }
-    }
+        metrics.done(Op.LOAD_ALL, start, network.sum(), keys.size());
 
-    @Override
-    public Iterable<K> loadAllKeys() {
-        // You can’t avoid “full scan” here anyway because all entries live in one record, so loadAllKeys() just means “read that record and return its map keys”.
-        try {
-            // Plain get on the CDT map record
-            com.aerospike.client.policy.Policy policy = new com.aerospike.client.policy.Policy();
-            Record record = client.get(policy, recordKey);
-
-            if (record == null) {
-                return java.util.Collections.emptyList();
+        if (buckets == 1) {
+            return loaded[0] != null ? loaded[0] : new HashMap<>();
+        }
+        Map<K, V> result = new HashMap<>(keys.size());
+        for (Map<K, V> part : loaded) {
+            if (part != null) {
+                result.putAll(part);
             }
+        }
+        return result;
+    }
 
-            Object raw = record.getValue(mapBinName);
-            if (raw == null) {
-                return java.util.Collections.emptyList();
-            }
+    private void readChunk(int bucket, boolean guarded, List<K> keyList, List<Value> mapKeys, Map<K, V> result,
+                           LongAdder network) {
+        long sent = System.nanoTime();
+        Record record = operateRead(bucket, guarded,
+                MapOperation.getByKeyList(mapBinName, mapKeys, MapReturnType.VALUE));
+        network.add(metrics.network(sent));
 
-            return getKeys(raw);
-        } catch (com.aerospike.client.AerospikeException e) {
-            throw new com.hazelcast.spi.exception.RetryableHazelcastException(
-                    "Aerospike loadAllKeys failed", e);
+        if (record == null) {
+            return;
         }
-    }
 
-    private List<K> getKeys(Object raw) {
-        if (!(raw instanceof Map<?, ?> rawMap)) {
-            throw new IllegalStateException(
-                    "Expected CDT map bin '" + mapBinName + "' to be a Map, but was: "
-                            + raw.getClass().getName()
-            );
+        Object raw = record.getValue(mapBinName);
+        if (raw == null) {
+            return;
         }
 
-        List<K> keys = new ArrayList<>(rawMap.size());
-        for (Object keyObj : rawMap.keySet()) {
-            @SuppressWarnings("unchecked")
-            K key = (K) keyObj; // assumes Aerospike map key type is compatible with K
-            keys.add(key);
+        @SuppressWarnings("unchecked")
+        List<Object> values = (List<Object>) raw;
+
+        long valueBytes = 0;
+        int found = 0;
+        for (int i = 0; i < keyList.size(); i++) {
+            Object elem = values.get(i);
+            if (elem == null) {
+                continue;
+            }
+            Value stored = Value.get(elem);
+            valueBytes += stored.estimateSize();
+            found++;
+            V value = fromAerospikeMapValue(keyList.get(i), Value.get(compression.decode(elem)));
+            if (value != null) {
+                result.put(keyList.get(i), value);
+            }
+        }
+        if (found > 0) {
+            // moving average, racy updates are fine for an estimate
+            avgValueBytes = (int) ((avgValueBytes * 7L + valueBytes / found) / 8);
         }
-        return keys;
+    }
+
+    /**
+     * Keys are read in pages of "aerospike.cdt.keyPageSize" map keys, without values, and
+     * handed to Hazelcast lazily through a bounded buffer, see {@link KeyStream}; read
+     * failures surface from the iterator.
+     * <p/>
+     * The first page is read by index, the next ones relative to the last key returned, so
+     * entries written while the keys are paged do not shift the following pages.
+     */
+    @Override
+    public Iterable<K> loadAllKeys() {
+        String name = namespace + "." + setName + "." + mapBinName;
+        return new KeyStream<K>(keyBufferSize, name, metrics.timed(sink -> {
+            for (Key bucketKey : bucketKeys) {
+                Object lastKey = null;
+                while (true) {
+                    Operation page = lastKey == null
+                            ? MapOperation.getByIndexRange(mapBinName, 0, keyPageSize, MapReturnType.KEY)
+                            : MapOperation.getByKeyRelativeIndexRange(mapBinName, Value.get(lastKey), 1,
+                                    keyPageSize, MapReturnType.KEY);
+                    Record record = client.operate(readOperatePolicy(), bucketKey, page);
+                    if (record == null) {
+                        break;
+                    }
+                    List<?> keys = record.getList(mapBinName);
+                    if (keys == null || keys.isEmpty()) {
+                        break;
+                    }
+                    for (Object keyObj : keys) {
+                        @SuppressWarnings("unchecked")
+                        K key = (K) keyObj; // assumes Aerospike map key type is compatible with K
+                        sink.accept(key);
+                    }
+                    if (keys.size() < keyPageSize) {
+                        break;
+                    }
+                    lastKey = keys.get(keys.size() - 1);
+                }
+            }
+        }));
     }
 
     @Override
@@ -250,44 +537,75 @@ public abstract class AbstractAerospikeCdtMapStore<K, V>
             return;
         }
 
+        long start = System.nanoTime();
         try {
             Value mapKey   = toAerospikeMapKey(key);
-            Value mapValue = toAerospikeMapValue(value);
+            Value mapValue = compression.encode(toAerospikeMapValue(value));
+            int bucket     = bucketOf(mapKey);
+            long sent      = System.nanoTime();
+
+            if (combiner != null) {
+                combiner.write(bucket, mapKey, mapValue,
+                        mapKey.estimateSize() + mapValue.estimateSize() + ENTRY_OVERHEAD);
+                metrics.done(Op.STORE, start, metrics.network(sent), 1);
+                return;
+            }
 
-            client.operate(
+            Record result = operateWrite(
                     writePolicy(),
-                    recordKey,
+                    bucket,
                     MapOperation.put(mapPolicy(), mapBinName, mapKey, mapValue)
             );
+            long network = metrics.network(sent);
+            if (snapshots != null) {
+                snapshots.apply(bucket, result, Map.of(mapKey, mapValue), null);
+            }
+            metrics.done(Op.STORE, start, network, 1);
         } catch (AerospikeException e) {
-            throw new RetryableHazelcastException("Aerospike store failed for key: " + key, e);
+            metrics.failed(Op.STORE, start, 1, e);
+            throw CallGuard.failure("Aerospike store failed for key: " + key, e);
         }
     }
 
+    /**
+     * putItems per bucket, in byte-budgeted chunks. Entries of chunks that were written are
+     * removed from {@code map}; if a chunk fails the exception is thrown with only the
+     * failed entries left.
+     */
     @Override
     public final void storeAll(Map<K, V> map) {
         if (map == null || map.isEmpty()) {
             return;
         }
 
-        try {
-            Map<Value, Value> items = new HashMap<>(map.size());
-            for (Map.Entry<K, V> entry : map.entrySet()) {
-                items.put(
-                        toAerospikeMapKey(entry.getKey()),
-                        toAerospikeMapValue(entry.getValue())
-                );
+        long start = System.nanoTime();
+        List<K>[] groups = groupByBucket(map.keySet());
+        ChunkFailures<K> failures = new ChunkFailures<>();
+        RuntimeException[] errors = forEachBucket(groups, (bucket, keyList) -> {
+            Map<Value, Value> items = new HashMap<>(keyList.size());
+            List<K> chunkKeys = new ArrayList<>();
+            int bytes = 0;
+            for (K k : keyList) {
+                Value mapKey   = toAerospikeMapKey(k);
+                Value mapValue = compression.encode(toAerospikeMapValue(map.get(k)));
+                int size = mapKey.estimateSize() + mapValue.estimateSize() + ENTRY_OVERHEAD;
+                if (!items.isEmpty() && bytes + size > maxRequestBytes) {
+                    writeChunk(bucket, writePolicy(), MapOperation.putItems(mapPolicy(), mapBinName, items),
+                            chunkKeys, failures, items, null);
+                    items = new HashMap<>();
+                    chunkKeys = new ArrayList<>();
+                    bytes = 0;
+                }
+                items.put(mapKey, mapValue);
+                chunkKeys.add(k);
+                bytes += size;
             }
+            writeChunk(bucket, writePolicy(), MapOperation.putItems(mapPolicy(), mapBinName, items),
+                    chunkKeys, failures, items, null);
+        });
 
-            client.operate(
-                    writePolicy(),
-                    recordKey,
-                    MapOperation.putItems(mapPolicy(), mapBinName, items)
-            );
-        } catch (AerospikeException e) {
-            throw new RetryableHazelcastException(
-                    "Aerospike storeAll failed for " + map.size() + " entries", e);
-        }
+        failures.addBuckets(groups, errors);
+        retainFailed(map.keySet(), failures, Op.STORE_ALL, start, "storeAll", "entries");
     }
 
     @Override
@@ -296,70 +614,364 @@ public abstract class AbstractAerospikeCdtMapStore<K, V>
             return;
         }
 
+        long start = System.nanoTime();
         try {
             Value mapKey = toAerospikeMapKey(key);
-            client.operate(
+            int bucket   = bucketOf(mapKey);
+            long sent    = System.nanoTime();
+
+            if (combiner != null) {
+                combiner.write(bucket, mapKey, null, mapKey.estimateSize() + ENTRY_OVERHEAD);
+                metrics.done(Op.DELETE, start, metrics.network(sent), 1);
+                return;
+            }
+
+            Record result = operateWrite(
                     deletePolicy(),
-                    recordKey,
+                    bucket,
                     MapOperation.removeByKey(mapBinName, mapKey, MapReturnType.NONE)
             );
+            long network = metrics.network(sent);
+            if (snapshots != null) {
+                snapshots.apply(bucket, result, null, List.of(mapKey));
+            }
+            metrics.done(Op.DELETE, start, network, 1);
         } catch (AerospikeException e) {
-            throw new RetryableHazelcastException("Aerospike delete failed for key: " + key, e);
+            metrics.failed(Op.DELETE, start, 1, e);
+            throw CallGuard.failure("Aerospike delete failed for key: " + key, e);
         }
     }
 
+    /**
+     * One removeByKeyList per bucket, with the same partial-failure contract as storeAll().
+     */
     @Override
     public final void deleteAll(Collection<K> keys) {
         if (keys == null || keys.isEmpty()) {
             return;
         }
 
-        try {
-            List<Value> mapKeys = new ArrayList<>(keys.size());
+        long start = System.nanoTime();
+        List<K>[] groups = groupByBucket(keys);
+        ChunkFailures<K> failures = new ChunkFailures<>();
+        RuntimeException[] errors = forEachBucket(groups, (bucket, keyList) -> {
+            List<Value> mapKeys = new ArrayList<>(keyList.size());
+            int from = 0;
+            int bytes = 0;
+            for (int i = 0; i < keyList.size(); i++) {
+                Value mapKey = toAerospikeMapKey(keyList.get(i));
+                int size = mapKey.estimateSize() + ENTRY_OVERHEAD;
+                if (!mapKeys.isEmpty() && bytes + size > maxRequestBytes) {
+                    writeChunk(bucket, deletePolicy(), MapOperation.removeByKeyList(mapBinName, mapKeys, MapReturnType.NONE),
+                            keyList.subList(from, i), failures, null, mapKeys);
+                    mapKeys = new ArrayList<>(keyList.size() - i);
+                    from = i;
+                    bytes = 0;
+                }
+                mapKeys.add(mapKey);
+                bytes += size;
+            }
+            writeChunk(bucket, deletePolicy(), MapOperation.removeByKeyList(mapBinName, mapKeys, MapReturnType.NONE),
+                    keyList.subList(from, keyList.size()), failures, null, mapKeys);
+        });
+
+        failures.addBuckets(groups, errors);
+        retainFailed(keys, failures, Op.DELETE_ALL, start, "deleteAll", "keys");
+    }
+
+    // ---------------------------------------------------------
+    // Buckets
+    // ---------------------------------------------------------
+
+    /**
+     * Bucket of a map key: stable across members and restarts, as it is derived from the
+     * Aerospike digest of the key.
+     */
+    protected int bucketOf(Value mapKey) {
+        if (buckets == 1) {
+            return 0;
+        }
+        byte[] digest = Crypto.computeDigest(setName, mapKey);
+        int hash = ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16)
+                | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+        return Math.floorMod(hash, buckets);
+    }
+
+    /**
+     * Record of a bucket. Bucket records are named after the record key: "recordKey#i".
+     */
+    protected Key createBucketKey(Key recordKey, int bucket) {
+        return new Key(namespace, setName, recordKey.userKey.toString() + "#" + bucket);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<K>[] groupByBucket(Collection<K> keys) {
+        List<K>[] groups = new List[buckets];
+        if (buckets == 1) {
+            List<K> all = new ArrayList<>(keys.size());
             for (K k : keys) {
-                mapKeys.add(toAerospikeMapKey(k));
+                if (k != null) {
+                    all.add(k);
+                }
+            }
+            groups[0] = all;
+            return groups;
+        }
+        int expected = keys.size() / buckets + 1;
+        for (K k : keys) {
+            if (k == null) {
+                continue;
             }
+            int bucket = bucketOf(toAerospikeMapKey(k));
+            if (groups[bucket] == null) {
+                groups[bucket] = new ArrayList<>(expected);
+            }
+            groups[bucket].add(k);
+        }
+        return groups;
+    }
 
-            client.operate(
-                    deletePolicy(),
-                    recordKey,
-                    MapOperation.removeByKeyList(mapBinName, mapKeys, MapReturnType.NONE)
-            );
+    private interface BucketTask<K> {
+        void run(int bucket, List<K> keys);
+    }
+
+    /**
+     * Runs {@code task} for every non-empty group, up to "aerospike.cdt.parallelism" at a
+     * time, and waits for all of them; a failed bucket does not stop the others.
+     *
+     * @return the error of each bucket, null where it succeeded
+     */
+    private RuntimeException[] forEachBucket(List<K>[] groups, BucketTask<K> task) {
+        RuntimeException[] errors = new RuntimeException[groups.length];
+        List<Integer> nonEmpty = new ArrayList<>();
+        for (int i = 0; i < groups.length; i++) {
+            if (groups[i] != null && !groups[i].isEmpty()) {
+                nonEmpty.add(i);
+            }
+        }
+
+        RuntimeException[] results = io.runAll(nonEmpty.size(), bucketParallelism, false,
+                i -> task.run(nonEmpty.get(i), groups[nonEmpty.get(i)]));
+        for (int i = 0; i < results.length; i++) {
+            errors[nonEmpty.get(i)] = results[i];
+        }
+        return errors;
+    }
+
+    /**
+     * One write operate of storeAll() / deleteAll(); a failure is recorded for the keys of
+     * the chunk only, the other chunks go on.
+     */
+    private void writeChunk(int bucket, WritePolicy policy, Operation op, List<K> chunkKeys,
+                            ChunkFailures<K> failures, Map<Value, Value> puts, List<Value> removes) {
+        Record result;
+        long sent = System.nanoTime();
+        try {
+            result = operateWrite(policy, bucket, op);
         } catch (AerospikeException e) {
-            throw new RetryableHazelcastException(
-                    "Aerospike deleteAll failed for " + keys.size() + " keys", e);
+            failures.networkNanos.add(metrics.network(sent));
+            failures.add(chunkKeys, e);
+            return;
+        }
+        failures.networkNanos.add(metrics.network(sent));
+        if (snapshots != null) {
+            snapshots.apply(bucket, result, puts, removes);
         }
     }
 
+    /**
+     * One batch of the write combiner: the merged puts and removes of concurrent store() /
+     * delete() calls on a bucket, in a single operate.
+     */
+    private void writeCombined(int bucket, Map<Value, Value> puts, List<Value> removes) {
+        List<Operation> ops = new ArrayList<>(2);
+        if (!puts.isEmpty()) {
+            ops.add(puts.size() == 1
+                    ? singlePut(puts)
+                    : MapOperation.putItems(mapPolicy(), mapBinName, puts));
+        }
+        if (!removes.isEmpty()) {
+            ops.add(removes.size() == 1
+                    ? MapOperation.removeByKey(mapBinName, removes.get(0), MapReturnType.NONE)
+                    : MapOperation.removeByKeyList(mapBinName, removes, MapReturnType.NONE));
+        }
+        WritePolicy policy = puts.isEmpty() ? deletePolicy() : writePolicy();
+        Record result = operateWrite(policy, bucket, ops.toArray(new Operation[0]));
+        if (snapshots != null) {
+            snapshots.apply(bucket, result, puts, removes);
+        }
+    }
+
+    private Operation singlePut(Map<Value, Value> puts) {
+        Map.Entry<Value, Value> e = puts.entrySet().iterator().next();
+        return MapOperation.put(mapPolicy(), mapBinName, e.getKey(), e.getValue());
+    }
+
+    /**
+     * Read operate on a bucket record. If {@code guarded}, the guard bin is read in the same
+     * operate, and a sealed record fails with ResultCode.FILTERED_OUT like a write would.
+     */
+    private Record operateRead(int bucket, boolean guarded, Operation read) {
+        if (!guarded || guardBin == null) {
+            return client.operate(readOperatePolicy(), bucketKeys[bucket], read);
+        }
+        Record record = client.operate(readOperatePolicy(), bucketKeys[bucket], read, Operation.get(guardBin));
+        if (record != null && record.getValue(guardBin) != null) {
+            throw sealed(bucketKeys[bucket], guardBin);
+        }
+        return record;
+    }
+
+    static AerospikeException sealed(Key bucketKey, String guardBin) {
+        return new AerospikeException(ResultCode.FILTERED_OUT,
+                "Bucket record " + bucketKey + " is sealed by bin " + guardBin);
+    }
+
+    /**
+     * Write operate on a bucket record. A failed write may or may not have been applied,
+     * so the bucket's snapshot is dropped.
+     * <p/>
+     * With "aerospike.cdt.guardBin" set, the write only applies while that bin is absent
+     * from the record: once something sets it (see {@link HybridMapStore}) the record is
+     * read-only for this store and writes fail with ResultCode.FILTERED_OUT. The guard
+     * replaces any filter of the policy. Reads check the same bin, see {@link #operateRead}.
+     */
+    private Record operateWrite(WritePolicy policy, int bucket, Operation... ops) {
+        if (writeGuard != null) {
+            policy = new WritePolicy(policy);
+            policy.filterExp = writeGuard;
+        }
+        return operateUnguarded(policy, bucket, ops);
+    }
+
+    /**
+     * Write operate that ignores the guard bin, for {@link HybridMapStore}.
+     */
+    Record operateUnguarded(WritePolicy policy, int bucket, Operation... ops) {
+        try {
+            return client.operate(policy, bucketKeys[bucket], ops);
+        } catch (AerospikeException e) {
+            if (snapshots != null) {
+                snapshots.invalidate(bucket);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Leaves only the failed keys in {@code keys} and throws, as Hazelcast then retries
+     * just those; returns if nothing failed.
+     */
+    private void retainFailed(Collection<K> keys, ChunkFailures<K> failures, Op op, long start,
+                              String operation, String what) {
+        int total = keys.size();
+        if (failures.keys.isEmpty()) {
+            metrics.done(op, start, failures.networkNanos.sum(), total);
+            return;
+        }
+        metrics.failed(op, start, total, failures.cause);
+        keys.retainAll(failures.keys);
+        throw CallGuard.failure("Aerospike " + operation + " failed for "
+                + failures.keys.size() + " of " + total + " " + what, failures.cause);
+    }
+
+    /**
+     * Keys of storeAll() / deleteAll() chunks that failed, with the first error seen.
+     * Filled from the bucket threads, hence synchronized.
+     */
+    private static final class ChunkFailures<K> {
+        private final Set<K> keys = new HashSet<>();
+        private RuntimeException cause;
+        private final LongAdder networkNanos = new LongAdder();
+
+        synchronized void add(List<K> chunkKeys, RuntimeException e) {
+            keys.addAll(chunkKeys);
+            if (cause == null) {
+                cause = e;
+            }
+        }
+
+        /**
+         * Whole buckets whose task failed outside of a chunk write, e.g. in a mapping hook.
+         */
+        void addBuckets(List<K>[] groups, RuntimeException[] errors) {
+            for (int i = 0; i < groups.length; i++) {
+                if (errors[i] != null) {
+                    add(groups[i], errors[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bucket records, for {@link HybridMapStore}.
+     */
+    Key[] bucketKeys() {
+        return bucketKeys;
+    }
+
+    /**
+     * Hazelcast value of a map value as stored, for {@link HybridMapStore}.
+     */
+    V decodeMapValue(K key, Object raw) {
+        return fromAerospikeMapValue(key, Value.get(compression.decode(raw)));
+    }
+
+    /**
+     * Compression counters of this map, see {@link ValueCompression}.
+     */
+    public ValueCompression.Stats compressionStats() {
+        return compression.stats();
+    }
+
+    /**
+     * Latency, batch size and error counters of this map, see {@link MapStoreMetrics}.
+     */
+    public MapStoreMetrics metrics() {
+        return metrics;
+    }
+
     // ---------------------------------------------------------
     // Policies – override in subclass if you want tuning
+    //
+    // Defaults are built once in init() from "aerospike.policy.*"
+    // properties (see AerospikePolicies) and shared by all calls:
+    // treat them as read-only.
     // ---------------------------------------------------------
 
+    private static final MapPolicy MAP_POLICY = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
+
     /**
      * Policy used for "read" operates (CDT getByKey / getByKeyList).
+     * Default: "read" policy from properties.
      */
     protected WritePolicy readOperatePolicy() {
         // In Aerospike Java client, operate always uses WritePolicy
-        WritePolicy wp = new WritePolicy();
-        // You can set wp.readModeAP / readModeSC / socketTimeout, etc. here
-        return wp;
+        return policies.readOperate;
+    }
+
+    /**
+     * Policy for plain record gets. Default: "read" policy from properties.
+     */
+    protected Policy readPolicy() {
+        return policies.read;
     }
 
     protected WritePolicy writePolicy() {
-        return new WritePolicy();
+        return policies.write;
     }
 
     /**
      * Separate hook in case you want different timeout / commit semantics for deletes.
-     * Default: same as writePolicy().
+     * Default: "delete" policy from properties, falling back to the write settings.
      */
     protected WritePolicy deletePolicy() {
-        return writePolicy();
+        return policies.delete;
     }
 
     protected MapPolicy mapPolicy() {
         // Default: ordered by key, default flags
-        return new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
+        return MAP_POLICY;
     }
 
     // ---------------------------------------------------------
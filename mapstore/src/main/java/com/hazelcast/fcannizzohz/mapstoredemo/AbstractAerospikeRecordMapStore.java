@@ -1,24 +1,40 @@
 package com.hazelcast.fcannizzohz.mapstoredemo;
 
-import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.IAerospikeClient;
 import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchDelete;
+import com.aerospike.client.BatchRecord;
+import com.aerospike.client.BatchWrite;
 import com.aerospike.client.Bin;
 import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
 import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
 import com.aerospike.client.ScanCallback;
+import com.aerospike.client.Value;
+import com.aerospike.client.exp.Exp;
+import com.aerospike.client.policy.BatchDeletePolicy;
 import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.BatchWritePolicy;
 import com.aerospike.client.policy.ClientPolicy;
 import com.aerospike.client.policy.Policy;
 import com.aerospike.client.policy.ScanPolicy;
 import com.aerospike.client.policy.WritePolicy;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.fcannizzohz.mapstoredemo.MapStoreMetrics.Op;
+import com.hazelcast.jet.Util;
+import com.hazelcast.map.EntryLoader.MetadataAwareValue;
+import com.hazelcast.map.EntryStore;
 import com.hazelcast.map.MapLoaderLifecycleSupport;
-import com.hazelcast.map.MapStore;
 import com.hazelcast.spi.exception.RetryableHazelcastException;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Abstract MapStore mapping a Hazelcast IMap<K,V> to Aerospike in a
@@ -29,16 +45,114 @@ import java.util.*;
  *   - Aerospike key:       derived from Hazelcast key via {@link #toAerospikeKey(Object)}
  *   - Aerospike bins:      derived from Hazelcast value via {@link #toBins(Object, Object)}
  *
+ * loadAll() reads in batch chunks sized from the latency and response size of earlier
+ * chunks, up to "aerospike.loadAll.parallelism" at a time, see {@link AdaptiveChunkSize}.
+ *
+ * storeAll() / deleteAll() are sent as Aerospike batch operate calls, in chunks of at most
+ * "aerospike.batchWriteSize" records (default 1000). Keys that fail are left in the
+ * map / collection passed by Hazelcast, so only those are retried.
+ *
+ * The Aerospike client is shared with the other maps of the member that use the same hosts
+ * and client settings, see {@link AerospikeClientRegistry}.
+ *
+ * With "aerospike.async.enabled" the client runs on NIO event loops and store(), storeAll(),
+ * delete() and deleteAll() issue non-blocking commands through an {@link AsyncWritePipeline}:
+ * batch chunks are pipelined and the caller only waits for the whole set to complete.
+ *
+ * With "aerospike.coalesce.group" the record writes of all maps of the group are merged
+ * per record and flushed together, see {@link WriteCoalescer}.
+ *
+ * String and bytes bins above "aerospike.compression.threshold" can be compressed
+ * transparently, see {@link ValueCompression}.
+ *
+ * Every operation records its latency, batch size and errors, published as Hazelcast
+ * metrics, see {@link MapStoreMetrics}.
+ *
+ * The store is an {@link EntryStore}: the expiration time of an entry is written as the TTL
+ * of its record, and load() / loadAll() return the record's void time as expiration time,
+ * so Aerospike drops expired entries on its own and they are not loaded back. Entries
+ * without expiration time are written with the TTL of the write policy (by default the
+ * namespace default-ttl). Writes merged by a coalesce group keep the policy TTL. With
+ * "aerospike.entryExpiration=false" (e.g. when IMap expiry only bounds what is cached)
+ * records keep the policy TTL and loaded entries carry no expiration time.
+ *
  * Subclasses only need to implement the mapping hooks.
  */
 public abstract class AbstractAerospikeRecordMapStore<K, V>
-        implements MapStore<K, V>, MapLoaderLifecycleSupport, Closeable {
+        implements EntryStore<K, V>, MapLoaderLifecycleSupport, Closeable {
 
-    protected AerospikeClient client;
+    /**
+     * Start of the Aerospike clock: record void times count seconds from 2010-01-01 UTC.
+     */
+    private static final long CITRUS_EPOCH_MILLIS = 1262304000000L;
+
+    protected IAerospikeClient client;
 
     protected String namespace;
     protected String setName;
 
+    /**
+     * Max number of records sent in a single batch operate by storeAll() / deleteAll().
+     */
+    protected int batchWriteSize;
+
+    /**
+     * Whether entry expiration times map to record TTLs, see {@link #supportsEntryExpiration()}.
+     */
+    private boolean entryExpiration;
+
+    /**
+     * Size of the next loadAll() chunk, see {@link AdaptiveChunkSize}.
+     */
+    private AdaptiveChunkSize loadAllChunk;
+
+    /**
+     * Max chunks of one loadAll() read at a time.
+     */
+    private int loadAllParallelism;
+
+    /**
+     * Runs the chunk reads of loadAll() and the slices of loadAllKeys() side by side,
+     * see {@link IoExecutor}.
+     */
+    private IoExecutor io;
+
+    /**
+     * Hold on the (by default shared) client, see {@link AerospikeClientRegistry}.
+     */
+    private AerospikeClientRegistry.Lease clientLease;
+
+    /**
+     * Write pipeline; null unless async mode is enabled.
+     */
+    private AsyncWritePipeline asyncWrites;
+
+    /**
+     * Shared write aggregator of "aerospike.coalesce.group"; null unless configured.
+     */
+    private WriteCoalescer coalescer;
+
+    /**
+     * Policies built from properties in init(), see {@link AerospikePolicies}.
+     */
+    private AerospikePolicies policies;
+
+    /**
+     * Parallel partition-range scan used by loadAllKeys().
+     */
+    private PartitionScan partitionScan;
+    private int keyBufferSize;
+
+    /**
+     * Codec layer under toBins() / fromRecord(), see {@link ValueCompression}.
+     */
+    private ValueCompression compression;
+
+    /**
+     * Latency / error counters, see {@link MapStoreMetrics}.
+     */
+    private MapStoreMetrics metrics;
+
     // ---------------------------------------------------------
     // Lifecycle
     // ---------------------------------------------------------
@@ -50,14 +164,52 @@ public abstract class AbstractAerospikeRecordMapStore<K, V>
 
         this.namespace = properties.getProperty("aerospike.namespace", "test");
         this.setName   = properties.getProperty("aerospike.set", mapName);
+        this.batchWriteSize = Integer.parseInt(properties.getProperty("aerospike.batchWriteSize", "1000"));
+        if (batchWriteSize <= 0) {
+            throw new IllegalArgumentException("aerospike.batchWriteSize must be > 0: " + batchWriteSize);
+        }
+
+        this.loadAllChunk = new AdaptiveChunkSize(properties);
+        this.loadAllParallelism = Integer.parseInt(properties.getProperty("aerospike.loadAll.parallelism",
+                String.valueOf(Math.min(4, Runtime.getRuntime().availableProcessors()))));
+        if (loadAllParallelism <= 0) {
+            throw new IllegalArgumentException("aerospike.loadAll.parallelism must be > 0: " + loadAllParallelism);
+        }
+        this.io = new IoExecutor(properties, "aerospike-record-" + mapName);
 
-        String host = properties.getProperty("aerospike.host", "127.0.0.1");
-        int port    = Integer.parseInt(properties.getProperty("aerospike.port", "3000"));
+        this.policies = new AerospikePolicies(properties);
+        this.partitionScan = new PartitionScan(properties);
+        this.keyBufferSize = KeyStream.bufferSize(properties);
+        this.compression = new ValueCompression(properties);
+        this.metrics = new MapStoreMetrics(mapName, "record", compression);
 
         ClientPolicy clientPolicy = createClientPolicy(properties, mapName);
-        this.client = new AerospikeClient(clientPolicy, host, port);
+        this.clientLease = acquireClient(properties, clientPolicy, mapName);
+        if (CallGuard.isEnabled(properties)) {
+            CallGuard guard = new CallGuard(properties, "aerospike-record-" + mapName);
+            metrics.guard(guard);
+            this.client = guard.wrap(clientLease.client());
+        } else {
+            this.client = clientLease.client();
+        }
+        if (clientLease.eventLoops() != null) {
+            this.asyncWrites = new AsyncWritePipeline(client, clientLease.eventLoops(),
+                    AsyncWritePipeline.maxInFlight(properties));
+        }
 
         afterInit(hazelcastInstance, properties, mapName);
+
+        this.entryExpiration = supportsEntryExpiration()
+                && Boolean.parseBoolean(properties.getProperty("aerospike.entryExpiration", "true"));
+
+        String group = WriteCoalescer.group(properties);
+        if (group != null) {
+            this.coalescer = WriteCoalescer.join(group, client, clientLease.client(), batchWritePolicy(),
+                    batchRecordWritePolicy(), batchWriteSize, properties);
+        }
+        if (MapStoreMetrics.isEnabled(properties)) {
+            metrics.register(hazelcastInstance);
+        }
     }
 
     /**
@@ -67,6 +219,16 @@ public abstract class AbstractAerospikeRecordMapStore<K, V>
         return new ClientPolicy();
     }
 
+    /**
+     * Hold on the client used by this store; by default a (shared) client from
+     * {@link AerospikeClientRegistry}. Override to plug in another {@link IAerospikeClient},
+     * e.g. through {@link AerospikeClientRegistry#unmanaged}.
+     */
+    protected AerospikeClientRegistry.Lease acquireClient(Properties properties, ClientPolicy clientPolicy,
+                                                          String mapName) {
+        return AerospikeClientRegistry.acquire(properties, clientPolicy, mapName);
+    }
+
     /**
      * Optional hook for extra initialisation after the client is created.
      */
@@ -84,10 +246,24 @@ public abstract class AbstractAerospikeRecordMapStore<K, V>
         }
     }
 
+    /**
+     * Releases this map's hold on the shared client; the client is closed
+     * once no map uses it any more.
+     */
     @Override
     public void close() throws IOException {
-        if (client != null && client.isConnected()) {
-            client.close();
+        if (metrics != null) {
+            metrics.deregister();
+        }
+        if (coalescer != null) {
+            coalescer.leave();
+            coalescer = null;
+        }
+        if (io != null) {
+            io.shutdown();
+        }
+        if (clientLease != null) {
+            clientLease.release();
         }
     }
 
@@ -96,111 +272,361 @@ public abstract class AbstractAerospikeRecordMapStore<K, V>
     // ---------------------------------------------------------
 
     @Override
-    public final V load(K key) {
+    public final MetadataAwareValue<V> load(K key) {
         if (key == null) {
             return null;
         }
 
+        long start = System.nanoTime();
         try {
             Key aKey = toAerospikeKey(key);
-            Record record = client.get(readPolicy(), aKey);
-            if (record == null) {
-                return null;
-            }
-            return fromRecord(aKey, key, record);
+            long sent = System.nanoTime();
+            Record record = client.get(readPolicy(), aKey, binNames());
+            long network = metrics.network(sent);
+            V value = record != null ? fromRecord(aKey, key, compression.decode(record)) : null;
+            metrics.done(Op.LOAD, start, network, 1);
+            return value != null ? new MetadataAwareValue<>(value, expirationTime(record)) : null;
         } catch (AerospikeException e) {
-            throw new RetryableHazelcastException("Aerospike load failed for key: " + key, e);
+            metrics.failed(Op.LOAD, start, 1, e);
+            throw CallGuard.failure("Aerospike load failed for key: " + key, e);
         }
     }
 
+    /**
+     * Keys are read in batch chunks: every reader claims the next chunk, at the size
+     * {@link AdaptiveChunkSize} holds at that moment, until all keys are read. Up to
+     * "aerospike.loadAll.parallelism" readers run at once on the store's {@link IoExecutor},
+     * the caller being one of them, and they put their values straight into one presized
+     * result map. If a chunk fails the others stop claiming and the whole call fails.
+     */
     @Override
-    public final Map<K, V> loadAll(Collection<K> keys) {
+    public final Map<K, MetadataAwareValue<V>> loadAll(Collection<K> keys) {
         if (keys == null || keys.isEmpty()) {
             return Collections.emptyMap();
         }
 
-        try {
-            List<K> keyList = new ArrayList<>(keys);
-            Key[] aKeys = new Key[keyList.size()];
-            for (int i = 0; i < keyList.size(); i++) {
-                aKeys[i] = toAerospikeKey(keyList.get(i));
-            }
-
-            Record[] records = client.get(batchPolicy(), aKeys);
-            Map<K, V> result = new HashMap<>(keyList.size());
-
-            for (int i = 0; i < keyList.size(); i++) {
-                Record record = records[i];
-                if (record == null) {
+        long start = System.nanoTime();
+        List<K> keyList = new ArrayList<>(keys);
+        int size = keyList.size();
+        Map<K, MetadataAwareValue<V>> result = new ConcurrentHashMap<>(size);
+        LongAdder network = new LongAdder();
+        AtomicInteger cursor = new AtomicInteger();
+
+        // the chunk size may shrink while the call runs: enough readers for the smallest chunks
+        int minChunk = loadAllChunk.min();
+        int readers = Math.min(loadAllParallelism, (size + minChunk - 1) / minChunk);
+        RuntimeException error = IoExecutor.firstError(io.runAll(readers, readers, true, reader -> {
+            while (true) {
+                int from = cursor.get();
+                if (from >= size) {
+                    return;
+                }
+                int to = (int) Math.min(size, (long) from + loadAllChunk.next());
+                if (!cursor.compareAndSet(from, to)) {
                     continue;
                 }
-                K logicalKey = keyList.get(i);
-                V value = fromRecord(aKeys[i], logicalKey, record);
-                if (value != null) {
-                    result.put(logicalKey, value);
+                try {
+                    readChunk(keyList.subList(from, to), result, network);
+                } catch (RuntimeException e) {
+                    // the other readers stop claiming chunks
+                    cursor.set(size);
+                    throw e;
                 }
             }
+        }));
 
-            return result;
-        } catch (AerospikeException e) {
-            throw new RetryableHazelcastException(
-                    "Aerospike loadAll failed for " + keys.size() + " keys", e);
+        if (error != null) {
+            metrics.failed(Op.LOAD_ALL, start, size, error);
+            throw CallGuard.failure(
+                    "Aerospike loadAll failed for " + size + " keys", error);
+        }
+        metrics.done(Op.LOAD_ALL, start, network.sum(), size);
+        return result;
+    }
+
+    /**
+     * One batch get of loadAll(); feeds its latency and response size to
+     * {@link AdaptiveChunkSize}.
+     */
+    private void readChunk(List<K> chunk, Map<K, MetadataAwareValue<V>> result, LongAdder network) {
+        Key[] aKeys = new Key[chunk.size()];
+        for (int i = 0; i < aKeys.length; i++) {
+            aKeys[i] = toAerospikeKey(chunk.get(i));
+        }
+
+        long sent = System.nanoTime();
+        Record[] records = client.get(batchPolicy(), aKeys, binNames());
+        long nanos = metrics.network(sent);
+        network.add(nanos);
+
+        long responseBytes = 0;
+        for (int i = 0; i < aKeys.length; i++) {
+            Record record = records[i];
+            if (record == null) {
+                continue;
+            }
+            responseBytes += recordBytes(record);
+            K logicalKey = chunk.get(i);
+            V value = fromRecord(aKeys[i], logicalKey, compression.decode(record));
+            if (value != null) {
+                result.put(logicalKey, new MetadataAwareValue<>(value, expirationTime(record)));
+            }
+        }
+        loadAllChunk.observe(aKeys.length, nanos, responseBytes);
+    }
+
+    private static long recordBytes(Record record) {
+        if (record.bins == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (Map.Entry<String, Object> bin : record.bins.entrySet()) {
+            bytes += bin.getKey().length() + Value.get(bin.getValue()).estimateSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Expiration time of a loaded entry: the void time of its record, if it has one.
+     */
+    private long expirationTime(Record record) {
+        if (!entryExpiration || record.expiration == 0) {
+            return MetadataAwareValue.NO_TIME_SET;
+        }
+        return CITRUS_EPOCH_MILLIS + Integer.toUnsignedLong(record.expiration) * 1000;
+    }
+
+    /**
+     * Record TTL in seconds for an entry expiring at {@code expirationTime}, at least one
+     * second; 0 (the policy TTL) if the entry does not expire or expiration is not mapped.
+     */
+    private int ttlSeconds(long expirationTime) {
+        if (!entryExpiration || expirationTime == MetadataAwareValue.NO_TIME_SET) {
+            return 0;
+        }
+        long millis = expirationTime - System.currentTimeMillis();
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (millis + 999) / 1000));
+    }
+
+    // ---------------------------------------------------------
+    // Plain values, for the stores and connectors built on this one
+    // ---------------------------------------------------------
+
+    V loadValue(K key) {
+        MetadataAwareValue<V> value = load(key);
+        return value != null ? value.getValue() : null;
+    }
+
+    Map<K, V> loadValues(Collection<K> keys) {
+        Map<K, MetadataAwareValue<V>> loaded = loadAll(keys);
+        Map<K, V> values = new HashMap<>(loaded.size());
+        for (Map.Entry<K, MetadataAwareValue<V>> entry : loaded.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return values;
+    }
+
+    void storeValue(K key, V value) {
+        store(key, new MetadataAwareValue<>(value));
+    }
+
+    /**
+     * storeAll() without expiration times, with the same contract: only the entries that
+     * failed are left in {@code map} when it throws.
+     */
+    void storeValues(Map<K, V> map) {
+        Map<K, MetadataAwareValue<V>> entries = new HashMap<>(map.size());
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            entries.put(entry.getKey(), new MetadataAwareValue<>(entry.getValue()));
+        }
+        try {
+            storeAll(entries);
+        } catch (RuntimeException e) {
+            map.keySet().retainAll(entries.keySet());
+            throw e;
         }
     }
 
     /**
      * Full scan of the Aerospike set to enumerate keys.
      * Use only if you really need MapStore EAGER initial load.
+     * <p/>
+     * The set is scanned as partition ranges in parallel, see {@link PartitionScan}.
+     * Keys are streamed to Hazelcast through a bounded buffer while the scan runs,
+     * see {@link KeyStream}; scan failures surface from the iterator.
      */
     @Override
     public Iterable<K> loadAllKeys() {
-        try {
-            ScanPolicy policy = scanPolicy();
-            // Only keys needed
-            policy.includeBinData = false;
-            // **Important**: ask Aerospike to send userKey
-            policy.sendKey = true;
-
-            List<K> keys = new ArrayList<>();
-
-            client.scanAll(policy, namespace, setName, (key, record) -> {
-                K logicalKey = fromAerospikeKey(key);
-                if (logicalKey != null) {
-                    keys.add(logicalKey);
-                }
-            });
-            return keys;
-        } catch (AerospikeException e) {
-            throw new RetryableHazelcastException("Aerospike loadAllKeys (scan) failed", e);
+        ScanPolicy policy = new ScanPolicy(scanPolicy());
+        // Only keys needed
+        policy.includeBinData = false;
+        // **Important**: ask Aerospike to send userKey
+        policy.sendKey = true;
+        filterOwnBins(policy);
+
+        return new KeyStream<K>(keyBufferSize, namespace + "." + setName, metrics.timed(sink ->
+                partitionScan.run(io, client, policy, namespace, setName, slice -> (key, record) -> {
+                    K logicalKey = fromAerospikeKey(key);
+                    if (logicalKey != null) {
+                        sink.accept(logicalKey);
+                    }
+                })));
+    }
+
+    /**
+     * Scans partitions [begin, begin + partitions) with bins and hands every entry
+     * to {@code sink}. Used by the Jet source in {@link AerospikeConnectors}.
+     */
+    void scanEntries(int begin, int partitions, KeyStream.Sink<Map.Entry<K, V>> sink) {
+        ScanPolicy policy = new ScanPolicy(scanPolicy());
+        policy.includeBinData = true;
+        policy.sendKey = true;
+        filterOwnBins(policy);
+
+        String[] bins = binNames();
+        partitionScan.run(io, client, policy, namespace, setName, begin, partitions, slice -> (key, record) -> {
+            K logicalKey = fromAerospikeKey(key);
+            if (logicalKey == null) {
+                return;
+            }
+            V value = fromRecord(key, logicalKey, compression.decode(record));
+            if (value != null) {
+                sink.accept(Util.entry(logicalKey, value));
+            }
+        }, bins);
+    }
+
+    /**
+     * With {@link #binNames()} set, scans only return records holding at least one of them.
+     */
+    private void filterOwnBins(ScanPolicy policy) {
+        String[] bins = binNames();
+        if (bins == null || policy.filterExp != null) {
+            return;
+        }
+        Exp[] exists = new Exp[bins.length];
+        for (int i = 0; i < bins.length; i++) {
+            exists[i] = Exp.binExists(bins[i]);
         }
+        policy.filterExp = Exp.build(exists.length == 1 ? exists[0] : Exp.or(exists));
+    }
+
+    int batchWriteSize() {
+        return batchWriteSize;
+    }
+
+    /**
+     * Compression counters of this map, see {@link ValueCompression}.
+     */
+    public ValueCompression.Stats compressionStats() {
+        return compression.stats();
+    }
+
+    /**
+     * Latency, batch size and error counters of this map, see {@link MapStoreMetrics}.
+     */
+    public MapStoreMetrics metrics() {
+        return metrics;
     }
 
     @Override
-    public final void store(K key, V value) {
+    public final void store(K key, MetadataAwareValue<V> value) {
         if (key == null) {
             return;
         }
 
+        long start = System.nanoTime();
         try {
             Key aKey = toAerospikeKey(key);
-            Bin[] bins = toBins(key, value);
-            client.put(writePolicy(), aKey, bins);
+            Operation[] ops = writeOperations(compression.encode(toBins(key, value.getValue())));
+            long sent = System.nanoTime();
+            if (coalescer != null) {
+                AsyncResult result = new AsyncResult();
+                coalescer.submit(result.completion, aKey, ops, result);
+                result.await();
+            } else {
+                WritePolicy policy = writePolicy();
+                int ttl = ttlSeconds(value.getExpirationTime());
+                if (ttl != 0) {
+                    policy = new WritePolicy(policy);
+                    policy.expiration = ttl;
+                }
+                if (asyncWrites == null) {
+                    client.operate(policy, aKey, ops);
+                } else {
+                    AsyncResult result = new AsyncResult();
+                    asyncWrites.operate(result.completion, policy, aKey, ops, result);
+                    result.await();
+                }
+            }
+            metrics.done(Op.STORE, start, metrics.network(sent), 1);
         } catch (AerospikeException e) {
-            throw new RetryableHazelcastException("Aerospike store failed for key: " + key, e);
+            metrics.failed(Op.STORE, start, 1, e);
+            throw CallGuard.failure("Aerospike store failed for key: " + key, e);
         }
     }
 
+    /**
+     * Writes the entries with batch operate calls of at most {@link #batchWriteSize} records;
+     * entries with an expiration time get their own record policy carrying the TTL.
+     * <p/>
+     * Entries that were written are removed from {@code map}; if any entry fails the
+     * exception is thrown with only the failed entries left in it, which is what
+     * Hazelcast retries one by one.
+     */
     @Override
-    public final void storeAll(Map<K, V> map) {
+    public final void storeAll(Map<K, MetadataAwareValue<V>> map) {
         if (map == null || map.isEmpty()) {
             return;
         }
 
-        // Simple implementation: per-entry put.
-        // Override if you want custom batching/async behaviour.
-        for (Map.Entry<K, V> entry : map.entrySet()) {
-            store(entry.getKey(), entry.getValue());
+        long start = System.nanoTime();
+        BatchFailures<K> failures = new BatchFailures<>();
+        int chunkSize = Math.min(map.size(), batchWriteSize);
+        List<K> chunkKeys = new ArrayList<>(chunkSize);
+        List<BatchRecord> chunk = new ArrayList<>(chunkSize);
+        BatchWritePolicy recordPolicy = batchRecordWritePolicy();
+
+        for (Map.Entry<K, MetadataAwareValue<V>> entry : map.entrySet()) {
+            K key = entry.getKey();
+            if (key == null) {
+                continue;
+            }
+            Operation[] ops = writeOperations(compression.encode(toBins(key, entry.getValue().getValue())));
+            if (coalescer != null) {
+                coalescer.submit(failures.completion, toAerospikeKey(key), ops, e -> failures.addIfFailed(key, e));
+                continue;
+            }
+            BatchWritePolicy policy = recordPolicy;
+            int ttl = ttlSeconds(entry.getValue().getExpirationTime());
+            if (ttl != 0) {
+                policy = new BatchWritePolicy(recordPolicy);
+                policy.expiration = ttl;
+            }
+            chunk.add(new BatchWrite(policy, toAerospikeKey(key), ops));
+            chunkKeys.add(key);
+            if (chunk.size() == batchWriteSize) {
+                operateBatch(chunk, chunkKeys, false, failures);
+                chunk = new ArrayList<>(chunkSize);
+                chunkKeys = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            operateBatch(chunk, chunkKeys, false, failures);
+        }
+        long sent = System.nanoTime();
+        failures.awaitPipeline();
+        failures.networkNanos += metrics.network(sent);
+
+        int total = map.size();
+        if (failures.isEmpty()) {
+            metrics.done(Op.STORE_ALL, start, failures.networkNanos, total);
+            return;
         }
+        metrics.failed(Op.STORE_ALL, start, total, failures.cause());
+        map.keySet().retainAll(failures.keys());
+        throw CallGuard.failure(
+                "Aerospike storeAll failed for " + failures.size() + " of " + total + " entries", failures.cause());
     }
 
     @Override
@@ -209,73 +635,357 @@ public abstract class AbstractAerospikeRecordMapStore<K, V>
             return;
         }
 
+        long start = System.nanoTime();
+        long sent = start;
         try {
             Key aKey = toAerospikeKey(key);
-            client.delete(deletePolicy(), aKey);
+            Operation[] ops = deleteOperations(key);
+            sent = System.nanoTime();
+            if (coalescer != null) {
+                AsyncResult result = new AsyncResult();
+                coalescer.submit(result.completion, aKey, ops != null ? ops : DELETE_RECORD, result);
+                result.await();
+            } else if (asyncWrites == null) {
+                if (ops == null) {
+                    client.delete(deletePolicy(), aKey);
+                } else {
+                    client.operate(clearPolicy(), aKey, ops);
+                }
+            } else {
+                AsyncResult result = new AsyncResult();
+                if (ops == null) {
+                    asyncWrites.delete(result.completion, deletePolicy(), aKey, result);
+                } else {
+                    asyncWrites.operate(result.completion, clearPolicy(), aKey, ops, result);
+                }
+                result.await();
+            }
+            metrics.done(Op.DELETE, start, metrics.network(sent), 1);
         } catch (AerospikeException e) {
-            throw new RetryableHazelcastException("Aerospike delete failed for key: " + key, e);
+            if (e.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) {
+                // nothing to clear
+                metrics.done(Op.DELETE, start, metrics.network(sent), 1);
+                return;
+            }
+            metrics.failed(Op.DELETE, start, 1, e);
+            throw CallGuard.failure("Aerospike delete failed for key: " + key, e);
         }
     }
 
+    /**
+     * Deletes the keys with batch operate calls of at most {@link #batchWriteSize} records.
+     * <p/>
+     * Keys that were deleted (or did not exist) are removed from {@code keys}; if any key
+     * fails the exception is thrown with only the failed keys left in it.
+     */
     @Override
     public final void deleteAll(Collection<K> keys) {
         if (keys == null || keys.isEmpty()) {
             return;
         }
 
+        long start = System.nanoTime();
+        BatchFailures<K> failures = new BatchFailures<>();
+        int chunkSize = Math.min(keys.size(), batchWriteSize);
+        List<K> chunkKeys = new ArrayList<>(chunkSize);
+        List<BatchRecord> chunk = new ArrayList<>(chunkSize);
+        BatchDeletePolicy recordPolicy = batchRecordDeletePolicy();
+
         for (K key : keys) {
-            delete(key);
+            if (key == null) {
+                continue;
+            }
+            Operation[] ops = deleteOperations(key);
+            if (coalescer != null) {
+                coalescer.submit(failures.completion, toAerospikeKey(key), ops != null ? ops : DELETE_RECORD,
+                        e -> failures.addIfFailed(key, e));
+                continue;
+            }
+            chunk.add(ops == null
+                    ? new BatchDelete(recordPolicy, toAerospikeKey(key))
+                    : new BatchWrite(batchRecordClearPolicy(), toAerospikeKey(key), ops));
+            chunkKeys.add(key);
+            if (chunk.size() == batchWriteSize) {
+                operateBatch(chunk, chunkKeys, true, failures);
+                chunk = new ArrayList<>(chunkSize);
+                chunkKeys = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            operateBatch(chunk, chunkKeys, true, failures);
+        }
+        long sent = System.nanoTime();
+        failures.awaitPipeline();
+        failures.networkNanos += metrics.network(sent);
+
+        int total = keys.size();
+        if (failures.isEmpty()) {
+            metrics.done(Op.DELETE_ALL, start, failures.networkNanos, total);
+            return;
+        }
+        metrics.failed(Op.DELETE_ALL, start, total, failures.cause());
+        keys.retainAll(failures.keys());
+        throw CallGuard.failure(
+                "Aerospike deleteAll failed for " + failures.size() + " of " + total + " keys", failures.cause());
+    }
+
+    /**
+     * Sends one batch operate and records the keys whose sub-command did not succeed.
+     * If the whole call throws, records that completed before the failure still carry
+     * {@link ResultCode#OK}, so only the others are reported.
+     * <p/>
+     * In async mode the chunk is only issued here; results are collected on completion
+     * and {@link BatchFailures#awaitPipeline()} waits for all chunks.
+     */
+    private void operateBatch(List<BatchRecord> chunk, List<K> chunkKeys, boolean delete,
+                              BatchFailures<K> failures) {
+        if (asyncWrites != null) {
+            asyncWrites.operate(failures.completion, batchWritePolicy(), chunk,
+                    e -> collectResults(chunk, chunkKeys, delete, e, failures));
+            return;
+        }
+
+        AerospikeException error = null;
+        long sent = System.nanoTime();
+        try {
+            client.operate(batchWritePolicy(), chunk);
+        } catch (AerospikeException e) {
+            error = e;
+        }
+        failures.networkNanos += metrics.network(sent);
+        collectResults(chunk, chunkKeys, delete, error, failures);
+    }
+
+    private void collectResults(List<BatchRecord> chunk, List<K> chunkKeys, boolean delete,
+                                AerospikeException error, BatchFailures<K> failures) {
+        for (int i = 0; i < chunk.size(); i++) {
+            BatchRecord br = chunk.get(i);
+            if (br.resultCode == ResultCode.OK
+                    || (delete && br.resultCode == ResultCode.KEY_NOT_FOUND_ERROR)) {
+                continue;
+            }
+            failures.add(chunkKeys.get(i),
+                    error != null ? error : new AerospikeException(br.resultCode, br.inDoubt));
+        }
+    }
+
+    /**
+     * Record delete as an operation, for writes merged by the {@link WriteCoalescer}.
+     */
+    private static final Operation[] DELETE_RECORD = { Operation.delete() };
+
+    /**
+     * Operations writing the bins of one entry; by default one put per bin, which leaves
+     * the other bins of the record untouched.
+     */
+    protected Operation[] writeOperations(Bin[] bins) {
+        Operation[] ops = new Operation[bins.length];
+        for (int i = 0; i < bins.length; i++) {
+            ops[i] = Operation.put(bins[i]);
+        }
+        return ops;
+    }
+
+    /**
+     * Encoded write operations of one entry, for {@link HybridMapStore}.
+     */
+    Operation[] entryOperations(K key, V value) {
+        return writeOperations(compression.encode(toBins(key, value)));
+    }
+
+    /**
+     * Whether the record TTL belongs to one entry, so entry expiration times can be mapped
+     * to it (default). Stores that share a record between entries return false.
+     */
+    protected boolean supportsEntryExpiration() {
+        return true;
+    }
+
+    /**
+     * Operations removing one entry from its record, or null (default) to delete the
+     * whole record. Run with clearPolicy() / batchRecordClearPolicy(); a missing record
+     * counts as deleted.
+     */
+    protected Operation[] deleteOperations(K key) {
+        return null;
+    }
+
+    /**
+     * Keys that failed in a storeAll() / deleteAll() call, with the first error seen.
+     * Filled from event loop threads in async mode, hence synchronized.
+     */
+    private static final class BatchFailures<K> {
+        private final Set<K> keys = new HashSet<>();
+        private final AsyncWritePipeline.Completion completion = new AsyncWritePipeline.Completion();
+        private AerospikeException cause;
+
+        /**
+         * Time the calling thread waited on Aerospike, for {@link MapStoreMetrics}.
+         */
+        private long networkNanos;
+
+        void addIfFailed(K key, AerospikeException e) {
+            if (e != null) {
+                add(key, e);
+            }
+        }
+
+        synchronized void add(K key, AerospikeException e) {
+            keys.add(key);
+            if (cause == null) {
+                cause = e;
+            }
+        }
+
+        /**
+         * Waits for all chunks issued in async mode and all writes handed to the coalescer;
+         * returns immediately otherwise.
+         */
+        void awaitPipeline() {
+            try {
+                completion.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RetryableHazelcastException("Interrupted waiting for Aerospike batch writes", e);
+            }
+        }
+
+        synchronized boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+        synchronized int size() {
+            return keys.size();
+        }
+
+        synchronized Set<K> keys() {
+            return keys;
+        }
+
+        synchronized AerospikeException cause() {
+            return cause;
+        }
+    }
+
+    /**
+     * Outcome of a single async store() / delete(), waited on by the calling thread.
+     */
+    private static final class AsyncResult implements Consumer<AerospikeException> {
+        private final AsyncWritePipeline.Completion completion = new AsyncWritePipeline.Completion();
+        private volatile AerospikeException error;
+
+        @Override
+        public void accept(AerospikeException e) {
+            this.error = e;
+        }
+
+        void await() {
+            try {
+                completion.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AerospikeException("Interrupted waiting for Aerospike write", e);
+            }
+            if (error != null) {
+                throw error;
+            }
         }
     }
 
     // ---------------------------------------------------------
     // Policies – override in subclass if you want tuning
+    //
+    // Defaults are built once in init() from "aerospike.policy.*"
+    // properties (see AerospikePolicies) and shared by all calls:
+    // treat them as read-only.
     // ---------------------------------------------------------
 
     /**
-     * Read policy for single-key get(). Default: new Policy().
+     * Read policy for single-key get(). Default: "read" policy from properties.
      */
     protected Policy readPolicy() {
-        return new Policy();
+        return policies.read;
     }
 
     /**
-     * Batch policy for multi-key get(). Default: new BatchPolicy().
+     * Batch policy for multi-key get(). Default: "batch" policy from properties.
      */
     protected BatchPolicy batchPolicy() {
-        return new BatchPolicy();
+        return policies.batchRead;
+    }
+
+    /**
+     * Batch policy for storeAll() / deleteAll() batch operate calls.
+     * Default: BatchPolicy.WriteDefault() with the "batchWrite" properties.
+     */
+    protected BatchPolicy batchWritePolicy() {
+        return policies.batchWrite;
+    }
+
+    /**
+     * Per-record policy for the writes of storeAll(). Should match writePolicy().
+     */
+    protected BatchWritePolicy batchRecordWritePolicy() {
+        return policies.batchRecordWrite;
     }
 
     /**
-     * Write policy for put() operations.
+     * Per-record policy for the deletes of deleteAll(). Should match deletePolicy().
+     */
+    protected BatchDeletePolicy batchRecordDeletePolicy() {
+        return policies.batchRecordDelete;
+    }
+
+    /**
+     * Write policy of delete() when {@link #deleteOperations(Object)} clears bins instead of
+     * deleting the record. Default: "delete" policy from properties, update only.
+     */
+    protected WritePolicy clearPolicy() {
+        return policies.clear;
+    }
+
+    /**
+     * Per-record policy of deleteAll() when {@link #deleteOperations(Object)} clears bins
+     * instead of deleting the record. Default: "batchDelete" properties, update only.
+     */
+    protected BatchWritePolicy batchRecordClearPolicy() {
+        return policies.batchRecordClear;
+    }
+
+    /**
+     * Write policy for store() operations. Default: "write" policy from properties, sendKey on.
      */
     protected WritePolicy writePolicy() {
-        WritePolicy wp = new WritePolicy();
-        wp.sendKey = true;
-        return wp;
+        return policies.write;
     }
 
     /**
      * Write policy for delete() operations.
-     * Default: same as writePolicy().
+     * Default: "delete" policy from properties, falling back to the write settings.
      */
     protected WritePolicy deletePolicy() {
-        return writePolicy();
+        return policies.delete;
     }
 
     /**
-     * Scan policy for loadAllKeys() scans.
+     * Scan policy for loadAllKeys() scans. Copied before the scan adjusts it.
      */
     protected ScanPolicy scanPolicy() {
-        ScanPolicy sp = new ScanPolicy();
-        sp.sendKey = true;
-        return sp;
+        return policies.scan;
     }
 
     // ---------------------------------------------------------
     // Mapping hooks – subclasses must implement
     // ---------------------------------------------------------
 
+    /**
+     * Bins read by load() / loadAll() and the scans, or null (default) for all bins of the
+     * record. When set, scans also skip records that hold none of these bins.
+     */
+    protected String[] binNames() {
+        return null;
+    }
+
     /**
      * Map Hazelcast key to Aerospike Key.
      * Example:
@@ -0,0 +1,87 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk size of the batch reads of {@link AbstractAerospikeRecordMapStore#loadAll}, learnt
+ * from the chunks read so far.
+ * <p/>
+ * Each chunk updates a moving average of the time and response bytes per key. The next
+ * chunk is as large as fits both "targetLatencyMs" and "maxResponseBytes" at those
+ * averages, within [minChunk, maxChunk]: small records on a fast cluster get large chunks,
+ * large records or a slow cluster get small ones, and the size follows when either
+ * changes. The per-key time includes the fixed cost of a batch call, so small chunks look
+ * expensive and the size grows quickly from "initialChunk" while the target allows.
+ * <p/>
+ * Properties:
+ *  - aerospike.loadAll.initialChunk     = chunk size before the first read (default: 500)
+ *  - aerospike.loadAll.minChunk         = smallest chunk (default: 16)
+ *  - aerospike.loadAll.maxChunk         = largest chunk (default: 5000)
+ *  - aerospike.loadAll.targetLatencyMs  = latency aimed at per chunk (default: 20)
+ *  - aerospike.loadAll.maxResponseBytes = response size aimed at per chunk (default: 1 MiB)
+ */
+final class AdaptiveChunkSize {
+
+    private final int minChunk;
+    private final int maxChunk;
+    private final long targetNanos;
+    private final long maxResponseBytes;
+
+    // moving averages; racy updates are fine for an estimate
+    private volatile double nanosPerKey;
+    private volatile double bytesPerKey;
+    private volatile int chunk;
+
+    AdaptiveChunkSize(Properties properties) {
+        this.minChunk = Integer.parseInt(properties.getProperty("aerospike.loadAll.minChunk", "16"));
+        this.maxChunk = Integer.parseInt(properties.getProperty("aerospike.loadAll.maxChunk", "5000"));
+        if (minChunk <= 0 || maxChunk < minChunk) {
+            throw new IllegalArgumentException("aerospike.loadAll.minChunk must be > 0 and <= maxChunk: "
+                    + minChunk + " / " + maxChunk);
+        }
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(properties.getProperty("aerospike.loadAll.targetLatencyMs", "20")));
+        this.maxResponseBytes = Long.parseLong(properties.getProperty("aerospike.loadAll.maxResponseBytes",
+                String.valueOf(1024 * 1024)));
+        this.chunk = clamp(Integer.parseInt(properties.getProperty("aerospike.loadAll.initialChunk", "500")));
+    }
+
+    /**
+     * Size of the next chunk.
+     */
+    int next() {
+        return chunk;
+    }
+
+    /**
+     * Smallest chunk size, which bounds the number of chunks of a call.
+     */
+    int min() {
+        return minChunk;
+    }
+
+    /**
+     * Records a chunk of {@code keys} keys that took {@code nanos} and returned
+     * {@code responseBytes}.
+     */
+    void observe(int keys, long nanos, long responseBytes) {
+        if (keys <= 0) {
+            return;
+        }
+        double n = (double) nanos / keys;
+        double b = (double) responseBytes / keys;
+        double avgNanos = nanosPerKey == 0 ? n : (nanosPerKey * 3 + n) / 4;
+        double avgBytes = bytesPerKey == 0 ? b : (bytesPerKey * 3 + b) / 4;
+        nanosPerKey = avgNanos;
+        bytesPerKey = avgBytes;
+
+        double byLatency = avgNanos > 0 ? targetNanos / avgNanos : maxChunk;
+        double byBytes = avgBytes > 0 ? maxResponseBytes / avgBytes : maxChunk;
+        chunk = clamp((int) Math.min(Math.min(byLatency, byBytes), maxChunk));
+    }
+
+    private int clamp(int size) {
+        return Math.max(minChunk, Math.min(maxChunk, size));
+    }
+}
@@ -0,0 +1,23 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a field of a value class to an Aerospike bin, see {@link PojoBinMapper}.
+ * <p/>
+ * If no field of a class is annotated, all its non-static, non-transient fields are mapped
+ * to bins named after them. All components of a record are mapped; on a component the
+ * annotation only sets the bin name.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.RECORD_COMPONENT})
+public @interface AerospikeBin {
+
+    /**
+     * Bin name; defaults to the field name. Aerospike limits bin names to 15 bytes.
+     */
+    String value() default "";
+}
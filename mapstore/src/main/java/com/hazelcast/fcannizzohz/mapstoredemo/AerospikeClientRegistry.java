@@ -0,0 +1,260 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.Host;
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.async.EventLoops;
+import com.aerospike.client.policy.ClientPolicy;
+import com.aerospike.client.policy.TlsPolicy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Process-wide registry of Aerospike clients shared by the MapStores of a member.
+ * <p/>
+ * Clients are keyed by seed hosts and by the connection-relevant settings of the
+ * ClientPolicy (credentials, cluster name, pool sizes, TLS, rack, ...). MapStores with
+ * the same key get the same client and so share its connection pools and tend thread;
+ * the client is closed when the last of them releases it. Per-map tuning stays in the
+ * policies each store passes on every call.
+ * <p/>
+ * A new client connects outside the registry lock: only the stores waiting for that same
+ * client wait for its cluster. A shared client is kept while it is temporarily
+ * disconnected, as it reconnects by itself; if opening it fails, the next store to
+ * acquire it tries again.
+ * <p/>
+ * Properties:
+ *  - aerospike.hosts        = "host1:3000,host2:3000" (default: aerospike.host / aerospike.port)
+ *  - aerospike.host         = seed host (default: 127.0.0.1)
+ *  - aerospike.port         = seed port (default: 3000)
+ *  - aerospike.sharedClient = true|false (default: true); false gives the map its own client
+ * <p/>
+ * In async mode (see {@link AsyncWritePipeline}) the event loops belong to the client and
+ * are shared and closed with it.
+ */
+public final class AerospikeClientRegistry {
+
+    private static final Map<List<Object>, Shared> CLIENTS = new HashMap<>();
+
+    private AerospikeClientRegistry() {
+    }
+
+    /**
+     * Returns a lease on a client for the given properties and policy, creating the client
+     * if no compatible one is open. Every lease must be released exactly once.
+     */
+    public static Lease acquire(Properties properties, ClientPolicy policy, String mapName) {
+        Host[] hosts = hosts(properties);
+        boolean async = AsyncWritePipeline.isEnabled(properties);
+        boolean shared = Boolean.parseBoolean(properties.getProperty("aerospike.sharedClient", "true"));
+
+        if (!shared) {
+            return new Lease(null, null, open(properties, policy, hosts, async, mapName), true);
+        }
+
+        List<Object> key = key(hosts, policy, async, properties);
+        Shared holder;
+        boolean opener;
+        synchronized (CLIENTS) {
+            holder = CLIENTS.get(key);
+            opener = holder == null;
+            if (opener) {
+                holder = new Shared();
+                CLIENTS.put(key, holder);
+            }
+            holder.refCount++;
+        }
+        if (opener) {
+            try {
+                holder.entry.complete(open(properties, policy, hosts, async, "shared"));
+            } catch (RuntimeException | Error e) {
+                synchronized (CLIENTS) {
+                    CLIENTS.remove(key, holder);
+                }
+                holder.entry.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return new Lease(key, holder, holder.entry.join(), true);
+        } catch (CompletionException e) {
+            // the opener failed and removed the client: nothing to release
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Lease on a client owned by the caller, e.g. a stand-in client for tests or
+     * benchmarks; releasing it leaves the client open.
+     */
+    public static Lease unmanaged(IAerospikeClient client, EventLoops eventLoops) {
+        return new Lease(null, null, new Entry(client, eventLoops), false);
+    }
+
+    /**
+     * Number of distinct shared clients currently open.
+     */
+    public static int openClients() {
+        synchronized (CLIENTS) {
+            return CLIENTS.size();
+        }
+    }
+
+    static Host[] hosts(Properties properties) {
+        int port = Integer.parseInt(properties.getProperty("aerospike.port", "3000"));
+        String hosts = properties.getProperty("aerospike.hosts");
+        if (hosts == null || hosts.isBlank()) {
+            hosts = properties.getProperty("aerospike.host", "127.0.0.1");
+        }
+        return Host.parseHosts(hosts, port);
+    }
+
+    private static Entry open(Properties properties, ClientPolicy policy, Host[] hosts, boolean async,
+                              String name) {
+        ClientPolicy clientPolicy = new ClientPolicy(policy);
+        EventLoops eventLoops = null;
+        if (async) {
+            eventLoops = AsyncWritePipeline.createEventLoops(properties, name);
+            clientPolicy.eventLoops = eventLoops;
+        }
+        try {
+            return new Entry(new AerospikeClient(clientPolicy, hosts), eventLoops);
+        } catch (RuntimeException e) {
+            if (eventLoops != null) {
+                eventLoops.close();
+            }
+            throw e;
+        }
+    }
+
+    private static void release(List<Object> key, Shared shared, Entry entry) {
+        if (shared != null) {
+            synchronized (CLIENTS) {
+                if (--shared.refCount > 0) {
+                    return;
+                }
+                CLIENTS.remove(key, shared);
+            }
+        }
+        entry.close();
+    }
+
+    /**
+     * Seed hosts plus every ClientPolicy setting that changes how connections are made.
+     * The password only contributes its SHA-256 digest. An SSLContext holds the key material
+     * and has no value equality, so it is part of the key as an object: stores share a TLS
+     * client only if they pass the same context.
+     */
+    private static List<Object> key(Host[] hosts, ClientPolicy p, boolean async, Properties properties) {
+        Host[] sorted = hosts.clone();
+        Arrays.sort(sorted, (a, b) -> a.toString().compareTo(b.toString()));
+        TlsPolicy tls = p.tlsPolicy;
+        String settings = Arrays.toString(sorted)
+                + "|user=" + p.user + "|pwd=" + digest(p.password)
+                + "|cluster=" + p.clusterName + "|auth=" + p.authMode
+                + "|timeout=" + p.timeout + "|login=" + p.loginTimeout
+                + "|conns=" + p.minConnsPerNode + "-" + p.maxConnsPerNode + "x" + p.connPoolsPerNode
+                + "|asyncConns=" + p.asyncMinConnsPerNode + "-" + p.asyncMaxConnsPerNode
+                + "|idle=" + p.maxSocketIdle + "|errRate=" + p.maxErrorRate + "/" + p.errorRateWindow
+                + "|tend=" + p.tendInterval
+                + "|tls=" + (tls == null ? "off" : Arrays.toString(tls.protocols) + ":" + Arrays.toString(tls.ciphers)
+                        + ":" + Arrays.toString(tls.revokeCertificates) + ":" + tls.forLoginOnly)
+                + "|ipMap=" + p.ipMap + "|alt=" + p.useServicesAlternate
+                + "|rack=" + p.rackAware + ":" + p.rackId + ":" + p.rackIds
+                + "|async=" + (async ? properties.getProperty("aerospike.async.eventLoops", "default") : "off");
+        // Arrays.asList, as the context may be null; nettyContext is unused with NIO event loops
+        return Arrays.asList(settings, tls != null ? tls.context : null);
+    }
+
+    private static String digest(String password) {
+        if (password == null) {
+            return "none";
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A shared client and its holders; {@link #entry} completes once the client is open.
+     */
+    private static final class Shared {
+        private final CompletableFuture<Entry> entry = new CompletableFuture<>();
+        // guarded by CLIENTS
+        private int refCount;
+    }
+
+    private static final class Entry {
+        private final IAerospikeClient client;
+        private final EventLoops eventLoops;
+
+        Entry(IAerospikeClient client, EventLoops eventLoops) {
+            this.client = client;
+            this.eventLoops = eventLoops;
+        }
+
+        void close() {
+            // also while disconnected, to stop the tend thread
+            client.close();
+            if (eventLoops != null) {
+                eventLoops.close();
+            }
+        }
+    }
+
+    /**
+     * A MapStore's hold on a client. {@link #release()} is idempotent.
+     */
+    public static final class Lease {
+        private final List<Object> key;
+        private final Shared shared;
+        private final Entry entry;
+        private final boolean owned;
+        private boolean released;
+
+        private Lease(List<Object> key, Shared shared, Entry entry, boolean owned) {
+            this.key = key;
+            this.shared = shared;
+            this.entry = entry;
+            this.owned = owned;
+        }
+
+        public IAerospikeClient client() {
+            return entry.client;
+        }
+
+        /**
+         * Event loops of the client, null unless async mode is enabled.
+         */
+        public EventLoops eventLoops() {
+            return entry.eventLoops;
+        }
+
+        public synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (owned) {
+                AerospikeClientRegistry.release(key, shared, entry);
+            }
+        }
+    }
+}
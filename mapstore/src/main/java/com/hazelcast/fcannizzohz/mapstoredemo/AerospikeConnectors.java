@@ -0,0 +1,190 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.cluster.Node;
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.pipeline.BatchSource;
+import com.hazelcast.jet.pipeline.Sink;
+import com.hazelcast.jet.pipeline.SinkBuilder;
+import com.hazelcast.jet.pipeline.SourceBuilder;
+import com.hazelcast.map.IMap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jet source and sinks built on the mapping hooks of {@link AbstractAerospikeRecordMapStore}
+ * ({@code toAerospikeKey}, {@code fromAerospikeKey}, {@code toBins}, {@code fromRecord}).
+ * <p/>
+ * Each connector processor creates its own store from {@code storeFn} and initialises it
+ * with the given properties, exactly as Hazelcast would for a MapStore; the same
+ * "aerospike.*" properties apply, except that these stores do not publish metrics (see
+ * {@link MapStoreMetrics}): they would shadow those of the map's own MapStore.
+ * <p/>
+ * Warm an IMap from Aerospike (every member scans its own share of the partitions):
+ * <pre>
+ *   Pipeline p = Pipeline.create();
+ *   p.readFrom(AerospikeConnectors.recordSource(StringStringRecordMapStore::new, props, "samples"))
+ *    .writeTo(AerospikeConnectors.mapSinkWithoutStore("samples"));
+ * </pre>
+ * Export an IMap to Aerospike with batch writes:
+ * <pre>
+ *   p.readFrom(Sources.map("samples"))
+ *    .writeTo(AerospikeConnectors.recordSink(StringStringRecordMapStore::new, props, "samples"));
+ * </pre>
+ */
+public final class AerospikeConnectors {
+
+    /**
+     * Source processors per member. Each one scans a contiguous range of partitions.
+     */
+    public static final int DEFAULT_LOCAL_PARALLELISM = 2;
+
+    /**
+     * Max entries emitted per fillBufferFn call.
+     */
+    private static final int MAX_FILL = 1024;
+
+    private AerospikeConnectors() {
+    }
+
+    /**
+     * Distributed batch source reading every record of the set with its bins.
+     * The 4096 Aerospike partitions are split evenly across all source processors of the
+     * cluster; each processor scans its range with the store's parallel partition scan.
+     */
+    public static <K, V> BatchSource<Map.Entry<K, V>> recordSource(
+            SupplierEx<? extends AbstractAerospikeRecordMapStore<K, V>> storeFn,
+            Properties properties, String mapName) {
+        return recordSource(storeFn, properties, mapName, DEFAULT_LOCAL_PARALLELISM);
+    }
+
+    public static <K, V> BatchSource<Map.Entry<K, V>> recordSource(
+            SupplierEx<? extends AbstractAerospikeRecordMapStore<K, V>> storeFn,
+            Properties properties, String mapName, int localParallelism) {
+        return SourceBuilder
+                .batch("aerospikeRecordSource(" + mapName + ")",
+                        ctx -> new SourceReader<>(storeFn.get(), properties, mapName, ctx))
+                .<Map.Entry<K, V>>fillBufferFn((reader, buf) -> {
+                    Iterator<Map.Entry<K, V>> it = reader.entries;
+                    for (int i = 0; i < MAX_FILL; i++) {
+                        if (!it.hasNext()) {
+                            buf.close();
+                            return;
+                        }
+                        buf.add(it.next());
+                    }
+                })
+                .destroyFn(SourceReader::close)
+                .distributed(localParallelism)
+                .build();
+    }
+
+    /**
+     * Sink writing entries to Aerospike through the store's batch storeAll(), in batches of
+     * "aerospike.batchWriteSize" entries. Fails the job if entries still fail after the
+     * store's own per-key reporting.
+     */
+    public static <K, V> Sink<Map.Entry<K, V>> recordSink(
+            SupplierEx<? extends AbstractAerospikeRecordMapStore<K, V>> storeFn,
+            Properties properties, String mapName) {
+        return SinkBuilder
+                .sinkBuilder("aerospikeRecordSink(" + mapName + ")",
+                        ctx -> new SinkWriter<>(storeFn.get(), properties, mapName, ctx))
+                .<Map.Entry<K, V>>receiveFn(SinkWriter::add)
+                .flushFn(SinkWriter::flush)
+                .destroyFn(SinkWriter::close)
+                .build();
+    }
+
+    /**
+     * Sink putting entries into an IMap with putTransient(), so that a MapStore configured on
+     * that map does not write the just loaded entries back to Aerospike. Entries get the TTL
+     * configured for the map, as with put().
+     */
+    public static <K, V> Sink<Map.Entry<K, V>> mapSinkWithoutStore(String mapName) {
+        return SinkBuilder
+                .sinkBuilder("mapSinkWithoutStore(" + mapName + ")",
+                        ctx -> ctx.hazelcastInstance().<K, V>getMap(mapName))
+                .<Map.Entry<K, V>>receiveFn((IMap<K, V> map, Map.Entry<K, V> e) ->
+                        // a negative ttl means the map's default; 0 would mean never expire
+                        map.putTransient(e.getKey(), e.getValue(), -1, TimeUnit.SECONDS))
+                .build();
+    }
+
+    /**
+     * Range of partitions scanned by the processor with the given global index.
+     */
+    /**
+     * {@code properties} for a processor's store.
+     */
+    private static Properties storeProperties(Properties properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        copy.setProperty("aerospike.metrics.enabled", "false");
+        return copy;
+    }
+
+    static int[] partitionShare(int processorIndex, int totalParallelism) {
+        int begin = (int) ((long) Node.PARTITIONS * processorIndex / totalParallelism);
+        int end = (int) ((long) Node.PARTITIONS * (processorIndex + 1) / totalParallelism);
+        return new int[] {begin, end - begin};
+    }
+
+    private static final class SourceReader<K, V> {
+        private final AbstractAerospikeRecordMapStore<K, V> store;
+        private final KeyStream<Map.Entry<K, V>> stream;
+        private final Iterator<Map.Entry<K, V>> entries;
+
+        SourceReader(AbstractAerospikeRecordMapStore<K, V> store, Properties properties, String mapName,
+                     Processor.Context ctx) {
+            this.store = store;
+            store.init(ctx.hazelcastInstance(), storeProperties(properties), mapName);
+
+            int[] share = partitionShare(ctx.globalProcessorIndex(), ctx.totalParallelism());
+            this.stream = new KeyStream<>(KeyStream.bufferSize(properties),
+                    mapName + "-" + ctx.globalProcessorIndex(),
+                    sink -> store.scanEntries(share[0], share[1], sink));
+            this.entries = stream.iterator();
+        }
+
+        void close() {
+            stream.close();
+            store.destroy();
+        }
+    }
+
+    private static final class SinkWriter<K, V> {
+        private final AbstractAerospikeRecordMapStore<K, V> store;
+        private Map<K, V> pending = new HashMap<>();
+
+        SinkWriter(AbstractAerospikeRecordMapStore<K, V> store, Properties properties, String mapName,
+                   Processor.Context ctx) {
+            this.store = store;
+            store.init(ctx.hazelcastInstance(), storeProperties(properties), mapName);
+        }
+
+        void add(Map.Entry<K, V> entry) {
+            pending.put(entry.getKey(), entry.getValue());
+            if (pending.size() >= store.batchWriteSize()) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Map<K, V> batch = pending;
+            pending = new HashMap<>();
+            store.storeValues(batch);
+        }
+
+        void close() {
+            store.destroy();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.policy.BatchDeletePolicy;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.BatchWritePolicy;
+import com.aerospike.client.policy.CommitLevel;
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.ReadModeAP;
+import com.aerospike.client.policy.ReadModeSC;
+import com.aerospike.client.policy.RecordExistsAction;
+import com.aerospike.client.policy.Replica;
+import com.aerospike.client.policy.ScanPolicy;
+import com.aerospike.client.policy.WritePolicy;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Aerospike policies of one MapStore, built once from properties in init() and reused
+ * by every call. The instances are shared: treat them as read-only and copy before
+ * changing a field.
+ * <p/>
+ * Every knob can be set for all policies of the map, or for one kind of policy:
+ * <pre>
+ *   aerospike.policy.totalTimeout=1000          # all policies
+ *   aerospike.policy.read.totalTimeout=50       # only single-key reads
+ * </pre>
+ * Kinds, with the kinds they fall back to before the common value:
+ *  - read        : single-key get, CDT read operates
+ *  - batch       : batch get (loadAll)
+ *  - write       : put / CDT write operates
+ *  - delete      : delete, CDT remove operates          (falls back to write)
+ *  - batchWrite  : storeAll batch operates             (falls back to write)
+ *  - batchDelete : deleteAll batch operates            (falls back to delete, write)
+ *  - scan        : loadAllKeys scans
+ * <p/>
+ * Knobs: socketTimeout, totalTimeout, connectTimeout, timeoutDelay, maxRetries,
+ * sleepBetweenRetries, replica (MASTER, MASTER_PROLES, SEQUENCE, PREFER_RACK, RANDOM),
+ * readModeAP (ONE, ALL), readModeSC, compress; for batches allowInline, allowInlineSSD,
+ * respondAllKeys; for writes commitLevel, durableDelete; for scans maxConcurrentNodes,
+ * recordsPerSecond.
+ * <p/>
+ * The client shipped with this project runs the node commands of a batch concurrently on its
+ * own, so batch concurrency is tuned through allowInline / allowInlineSSD, which control how
+ * the server processes the batch.
+ */
+final class AerospikePolicies {
+
+    private static final String PREFIX = "aerospike.policy.";
+
+    final Policy read;
+    final WritePolicy readOperate;
+    final BatchPolicy batchRead;
+    final WritePolicy write;
+    final WritePolicy delete;
+    final BatchPolicy batchWrite;
+    final BatchWritePolicy batchRecordWrite;
+    final BatchDeletePolicy batchRecordDelete;
+    final WritePolicy clear;
+    final BatchWritePolicy batchRecordClear;
+    final ScanPolicy scan;
+
+    private final Properties properties;
+
+    AerospikePolicies(Properties properties) {
+        this.properties = properties;
+
+        this.read = apply(new Policy(), "read");
+        this.readOperate = apply(new WritePolicy(), "read");
+        this.batchRead = apply(new BatchPolicy(), "batch");
+
+        WritePolicy wp = new WritePolicy();
+        wp.sendKey = true;
+        this.write = apply(wp, "write");
+        this.delete = apply(new WritePolicy(wp), "delete", "write");
+
+        this.batchWrite = apply(BatchPolicy.WriteDefault(), "batchWrite", "write");
+
+        BatchWritePolicy bwp = new BatchWritePolicy();
+        bwp.sendKey = true;
+        this.batchRecordWrite = applyRecord(bwp, "batchWrite", "write");
+
+        BatchDeletePolicy bdp = new BatchDeletePolicy();
+        bdp.sendKey = true;
+        this.batchRecordDelete = applyRecord(bdp, "batchDelete", "delete", "write");
+
+        // deletes that only clear the map's own bins: never create a record
+        WritePolicy cp = new WritePolicy(delete);
+        cp.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        this.clear = cp;
+        BatchWritePolicy bcp = new BatchWritePolicy();
+        bcp.sendKey = true;
+        bcp.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        this.batchRecordClear = applyRecord(bcp, "batchDelete", "delete", "write");
+
+        ScanPolicy sp = new ScanPolicy();
+        sp.sendKey = true;
+        this.scan = apply(sp, "scan");
+    }
+
+    private <P extends Policy> P apply(P policy, String... kinds) {
+        String v;
+        if ((v = get("socketTimeout", kinds)) != null) {
+            policy.socketTimeout = Integer.parseInt(v);
+        }
+        if ((v = get("totalTimeout", kinds)) != null) {
+            policy.totalTimeout = Integer.parseInt(v);
+        }
+        if ((v = get("connectTimeout", kinds)) != null) {
+            policy.connectTimeout = Integer.parseInt(v);
+        }
+        if ((v = get("timeoutDelay", kinds)) != null) {
+            policy.timeoutDelay = Integer.parseInt(v);
+        }
+        if ((v = get("maxRetries", kinds)) != null) {
+            policy.maxRetries = Integer.parseInt(v);
+        }
+        if ((v = get("sleepBetweenRetries", kinds)) != null) {
+            policy.sleepBetweenRetries = Integer.parseInt(v);
+        }
+        if ((v = get("replica", kinds)) != null) {
+            policy.replica = Replica.valueOf(v.toUpperCase(Locale.ROOT));
+        }
+        if ((v = get("readModeAP", kinds)) != null) {
+            policy.readModeAP = ReadModeAP.valueOf(v.toUpperCase(Locale.ROOT));
+        }
+        if ((v = get("readModeSC", kinds)) != null) {
+            policy.readModeSC = ReadModeSC.valueOf(v.toUpperCase(Locale.ROOT));
+        }
+        if ((v = get("compress", kinds)) != null) {
+            policy.compress = Boolean.parseBoolean(v);
+        }
+
+        if (policy instanceof BatchPolicy bp) {
+            if ((v = get("allowInline", kinds)) != null) {
+                bp.allowInline = Boolean.parseBoolean(v);
+            }
+            if ((v = get("allowInlineSSD", kinds)) != null) {
+                bp.allowInlineSSD = Boolean.parseBoolean(v);
+            }
+            if ((v = get("respondAllKeys", kinds)) != null) {
+                bp.respondAllKeys = Boolean.parseBoolean(v);
+            }
+        }
+        if (policy instanceof WritePolicy wp) {
+            if ((v = get("commitLevel", kinds)) != null) {
+                wp.commitLevel = CommitLevel.valueOf(v.toUpperCase(Locale.ROOT));
+            }
+            if ((v = get("durableDelete", kinds)) != null) {
+                wp.durableDelete = Boolean.parseBoolean(v);
+            }
+        }
+        if (policy instanceof ScanPolicy sp) {
+            if ((v = get("maxConcurrentNodes", kinds)) != null) {
+                sp.maxConcurrentNodes = Integer.parseInt(v);
+            }
+            if ((v = get("recordsPerSecond", kinds)) != null) {
+                sp.recordsPerSecond = Integer.parseInt(v);
+            }
+        }
+        return policy;
+    }
+
+    private BatchWritePolicy applyRecord(BatchWritePolicy policy, String... kinds) {
+        String v;
+        if ((v = get("commitLevel", kinds)) != null) {
+            policy.commitLevel = CommitLevel.valueOf(v.toUpperCase(Locale.ROOT));
+        }
+        if ((v = get("durableDelete", kinds)) != null) {
+            policy.durableDelete = Boolean.parseBoolean(v);
+        }
+        return policy;
+    }
+
+    private BatchDeletePolicy applyRecord(BatchDeletePolicy policy, String... kinds) {
+        String v;
+        if ((v = get("commitLevel", kinds)) != null) {
+            policy.commitLevel = CommitLevel.valueOf(v.toUpperCase(Locale.ROOT));
+        }
+        if ((v = get("durableDelete", kinds)) != null) {
+            policy.durableDelete = Boolean.parseBoolean(v);
+        }
+        return policy;
+    }
+
+    /**
+     * Value of the knob for the first kind that sets it, else the common value, else null.
+     */
+    private String get(String knob, String... kinds) {
+        for (String kind : kinds) {
+            String v = properties.getProperty(PREFIX + kind + "." + knob);
+            if (v != null) {
+                return v.trim();
+            }
+        }
+        String v = properties.getProperty(PREFIX + knob);
+        return v != null ? v.trim() : null;
+    }
+}
@@ -0,0 +1,16 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.hazelcast.core.HazelcastException;
+
+/**
+ * Thrown by a MapStore whose circuit breaker is open: Aerospike failed too many recent calls
+ * with overload errors, so the store fails at once instead of adding to the load. Unlike the
+ * other store failures it is not retryable; callers should back off or degrade, and the
+ * store lets a probe call through once "aerospike.breaker.openMs" has passed.
+ */
+public class AerospikeUnavailableException extends HazelcastException {
+
+    public AerospikeUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,182 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRecord;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.async.EventLoops;
+import com.aerospike.client.async.EventPolicy;
+import com.aerospike.client.async.NioEventLoops;
+import com.aerospike.client.listener.BatchOperateListListener;
+import com.aerospike.client.listener.DeleteListener;
+import com.aerospike.client.listener.RecordListener;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.WritePolicy;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking write path used by {@link AbstractAerospikeRecordMapStore} when
+ * "aerospike.async.enabled" is true.
+ * <p/>
+ * Commands are issued on the client's event loops and never block the calling
+ * thread on the network. At most "aerospike.async.maxInFlight" commands (default 256)
+ * are outstanding per store; callers only wait on the {@link Completion} of the
+ * commands they issued.
+ * <p/>
+ * Properties:
+ *  - aerospike.async.enabled     = true|false (default: false)
+ *  - aerospike.async.eventLoops  = number of NIO event loops (default: available processors)
+ *  - aerospike.async.maxInFlight = max outstanding commands per store (default: 256)
+ */
+final class AsyncWritePipeline {
+
+    private final IAerospikeClient client;
+    private final EventLoops eventLoops;
+    private final Semaphore window;
+
+    AsyncWritePipeline(IAerospikeClient client, EventLoops eventLoops, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("aerospike.async.maxInFlight must be > 0: " + maxInFlight);
+        }
+        this.client = client;
+        this.eventLoops = eventLoops;
+        this.window = new Semaphore(maxInFlight);
+    }
+
+    static boolean isEnabled(Properties properties) {
+        return Boolean.parseBoolean(properties.getProperty("aerospike.async.enabled", "false"));
+    }
+
+    static int maxInFlight(Properties properties) {
+        return Integer.parseInt(properties.getProperty("aerospike.async.maxInFlight", "256"));
+    }
+
+    /**
+     * Event loops to set on the ClientPolicy. Threads are daemons named after the map.
+     */
+    static EventLoops createEventLoops(Properties properties, String mapName) {
+        int size = Integer.parseInt(properties.getProperty("aerospike.async.eventLoops",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        return new NioEventLoops(new EventPolicy(), size, true, "aerospike-" + mapName);
+    }
+
+    /**
+     * Batch operate; {@code onDone} gets null on success or the error of the whole command.
+     * Per-record results are in {@code records} either way.
+     */
+    void operate(Completion completion, BatchPolicy policy, List<BatchRecord> records,
+                 Consumer<AerospikeException> onDone) {
+        begin(completion);
+        try {
+            client.operate(eventLoops.next(), new BatchOperateListListener() {
+                @Override
+                public void onSuccess(List<BatchRecord> batchRecords, boolean status) {
+                    finish(completion, onDone, null);
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    finish(completion, onDone, e);
+                }
+            }, policy, records);
+        } catch (AerospikeException e) {
+            finish(completion, onDone, e);
+        }
+    }
+
+    /**
+     * Single-record operate; {@code onDone} gets null on success or the error.
+     */
+    void operate(Completion completion, WritePolicy policy, Key key, Operation[] ops,
+                 Consumer<AerospikeException> onDone) {
+        begin(completion);
+        try {
+            client.operate(eventLoops.next(), new RecordListener() {
+                @Override
+                public void onSuccess(Key k, Record record) {
+                    finish(completion, onDone, null);
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    finish(completion, onDone, e);
+                }
+            }, policy, key, ops);
+        } catch (AerospikeException e) {
+            finish(completion, onDone, e);
+        }
+    }
+
+    /**
+     * Single-record delete; {@code onDone} gets null on success (existing or not) or the error.
+     */
+    void delete(Completion completion, WritePolicy policy, Key key, Consumer<AerospikeException> onDone) {
+        begin(completion);
+        try {
+            client.delete(eventLoops.next(), new DeleteListener() {
+                @Override
+                public void onSuccess(Key k, boolean existed) {
+                    finish(completion, onDone, null);
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    finish(completion, onDone, e);
+                }
+            }, policy, key);
+        } catch (AerospikeException e) {
+            finish(completion, onDone, e);
+        }
+    }
+
+    private void begin(Completion completion) {
+        // back-pressure: the caller blocks here only while the window is full
+        window.acquireUninterruptibly();
+        completion.begin();
+    }
+
+    private void finish(Completion completion, Consumer<AerospikeException> onDone, AerospikeException e) {
+        try {
+            onDone.accept(e);
+        } finally {
+            window.release();
+            completion.arrive();
+        }
+    }
+
+    /**
+     * Tracks the commands issued by one caller. The caller issues any number of commands,
+     * then calls {@link #await()} once. Also used by {@link WriteCoalescer}.
+     */
+    static final class Completion {
+        // starts at 1 for the caller itself, released in await()
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * One more command issued; must be matched by {@link #arrive()}.
+         */
+        void begin() {
+            pending.incrementAndGet();
+        }
+
+        void arrive() {
+            if (pending.decrementAndGet() == 0) {
+                done.countDown();
+            }
+        }
+
+        void await() throws InterruptedException {
+            arrive();
+            done.await();
+        }
+    }
+}
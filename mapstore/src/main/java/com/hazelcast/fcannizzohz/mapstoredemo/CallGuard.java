@@ -0,0 +1,345 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.async.EventLoop;
+import com.hazelcast.spi.exception.RetryableHazelcastException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit and circuit breaker around the blocking calls of one store's
+ * Aerospike client, see {@link #wrap(IAerospikeClient)}.
+ * <p/>
+ * Limit (AIMD): at most "limit" calls are in flight. A call that finds the limit reached
+ * waits up to "maxWaitMs" for a slot, then fails with {@link ResultCode#NO_MORE_CONNECTIONS}
+ * (retryable: it is back pressure). The limit grows by one per "limit" calls that complete
+ * within "maxLatencyMs" while it is at least half used, and is multiplied by "backoff" when
+ * a call is slower or fails with an overload error (timeout, connection, device overload,
+ * hot key, server not available), at most once per "maxLatencyMs".
+ * <p/>
+ * Breaker: once "minCalls" calls in a "windowMs" window fail with overload errors at a
+ * rate of at least "errorRate", the breaker opens and every call fails at once with
+ * {@link ResultCode#MAX_ERROR_RATE}; the stores surface that as the non-retryable
+ * {@link AerospikeUnavailableException}, so Hazelcast does not retry into the overload.
+ * After "openMs" one probe call goes through: if it succeeds the breaker closes, if it
+ * fails it opens again. Hot key errors only shrink the limit and do not count here:
+ * contention on one record, such as a CDT bucket, is normal and worth retrying.
+ * <p/>
+ * Scans hold their slot for the whole scan, so they are checked against the breaker and
+ * counted in its window, but neither take a slot nor feed the latency. Async calls pass
+ * through unguarded: the async pipeline bounds its own in-flight commands.
+ * <p/>
+ * Properties:
+ *  - aerospike.guard.enabled          = true|false (default: true)
+ *  - aerospike.limiter.initialLimit   = calls in flight at start (default: 64)
+ *  - aerospike.limiter.minLimit       = lowest limit (default: 4)
+ *  - aerospike.limiter.maxLimit       = highest limit (default: 512)
+ *  - aerospike.limiter.maxLatencyMs   = slower calls shrink the limit (default: 250)
+ *  - aerospike.limiter.backoff        = shrink factor (default: 0.9)
+ *  - aerospike.limiter.maxWaitMs      = wait for a slot (default: 1000)
+ *  - aerospike.breaker.errorRate      = overload error rate that opens the breaker (default: 0.5)
+ *  - aerospike.breaker.minCalls       = calls in a window before the rate counts (default: 20)
+ *  - aerospike.breaker.windowMs       = error rate window (default: 10000)
+ *  - aerospike.breaker.openMs         = time open before a probe (default: 5000)
+ */
+final class CallGuard {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * A call the guard did not let through; never sent to Aerospike.
+     */
+    static final class Rejected extends AerospikeException {
+        Rejected(int resultCode, String message) {
+            super(resultCode, message);
+        }
+    }
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxLatencyNanos;
+    private final double backoff;
+    private final long maxWaitNanos;
+    private final double errorRate;
+    private final int minCalls;
+    private final long windowNanos;
+    private final long openNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+
+    // guarded by lock
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+    private State state = State.CLOSED;
+    private long openUntil;
+    private boolean probing;
+    private long windowStart;
+    private int windowCalls;
+    private int windowErrors;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    CallGuard(Properties properties, String name) {
+        this.name = name;
+        this.minLimit = Integer.parseInt(properties.getProperty("aerospike.limiter.minLimit", "4"));
+        this.maxLimit = Integer.parseInt(properties.getProperty("aerospike.limiter.maxLimit", "512"));
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("aerospike.limiter.minLimit must be > 0 and <= maxLimit: "
+                    + minLimit + " / " + maxLimit);
+        }
+        this.limit = Math.max(minLimit, Math.min(maxLimit,
+                Integer.parseInt(properties.getProperty("aerospike.limiter.initialLimit", "64"))));
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(properties.getProperty("aerospike.limiter.maxLatencyMs", "250")));
+        this.backoff = Double.parseDouble(properties.getProperty("aerospike.limiter.backoff", "0.9"));
+        if (backoff <= 0 || backoff >= 1) {
+            throw new IllegalArgumentException("aerospike.limiter.backoff must be in (0, 1): " + backoff);
+        }
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(properties.getProperty("aerospike.limiter.maxWaitMs", "1000")));
+        this.errorRate = Double.parseDouble(properties.getProperty("aerospike.breaker.errorRate", "0.5"));
+        this.minCalls = Integer.parseInt(properties.getProperty("aerospike.breaker.minCalls", "20"));
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(properties.getProperty("aerospike.breaker.windowMs", "10000")));
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(properties.getProperty("aerospike.breaker.openMs", "5000")));
+        this.windowStart = System.nanoTime();
+        this.lastDecrease = windowStart - maxLatencyNanos;
+    }
+
+    static boolean isEnabled(Properties properties) {
+        return Boolean.parseBoolean(properties.getProperty("aerospike.guard.enabled", "true"));
+    }
+
+    /**
+     * {@code client} with every blocking call going through this guard.
+     */
+    IAerospikeClient wrap(IAerospikeClient client) {
+        InvocationHandler handler = (proxy, method, args) -> invoke(client, method, args);
+        return (IAerospikeClient) Proxy.newProxyInstance(IAerospikeClient.class.getClassLoader(),
+                new Class<?>[] {IAerospikeClient.class}, handler);
+    }
+
+    private Object invoke(IAerospikeClient client, Method method, Object[] args) throws Throwable {
+        if (!isGuarded(method)) {
+            return call(client, method, args);
+        }
+        boolean scan = method.getName().startsWith("scan");
+        boolean probe = acquire(!scan);
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            return call(client, method, args);
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            release(!scan, probe, System.nanoTime() - start, error);
+        }
+    }
+
+    private static Object call(IAerospikeClient client, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(client, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Calls that go to the cluster and block the caller: not the async ones, which take an
+     * event loop first, nor the accessors of the client itself.
+     */
+    private static boolean isGuarded(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        if (types.length == 0 || EventLoop.class.isAssignableFrom(types[0])) {
+            return false;
+        }
+        return switch (method.getName()) {
+            case "get", "getHeader", "exists", "put", "append", "prepend", "add", "delete", "touch", "operate",
+                 "scanAll", "scanNode", "scanPartitions", "execute" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Takes a slot, or checks the breaker only if {@code limited} is false.
+     *
+     * @return whether the call is the probe of a half-open breaker
+     */
+    private boolean acquire(boolean limited) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (state == State.OPEN && now - openUntil >= 0) {
+                state = State.HALF_OPEN;
+                probing = false;
+            }
+            if (state == State.OPEN || (state == State.HALF_OPEN && probing)) {
+                rejected.increment();
+                throw new Rejected(ResultCode.MAX_ERROR_RATE, "Aerospike circuit breaker of " + name + " is open");
+            }
+            boolean probe = state == State.HALF_OPEN;
+            if (probe) {
+                probing = true;
+            }
+            if (!limited) {
+                return probe;
+            }
+            long remaining = maxWaitNanos;
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) {
+                    if (probe) {
+                        probing = false;
+                    }
+                    rejected.increment();
+                    throw new Rejected(ResultCode.NO_MORE_CONNECTIONS,
+                            "Aerospike concurrency limit of " + name + " reached: " + (int) limit);
+                }
+                try {
+                    remaining = slotFreed.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (probe) {
+                        probing = false;
+                    }
+                    throw new AerospikeException("Interrupted waiting for an Aerospike call slot of " + name, e);
+                }
+            }
+            inFlight++;
+            return probe;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(boolean limited, boolean probe, long nanos, Throwable error) {
+        boolean overload = isOverload(error);
+        boolean breakerError = overload && !isHotKey(error);
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (limited) {
+                inFlight--;
+                slotFreed.signal();
+            }
+
+            // breaker
+            if (probe) {
+                probing = false;
+                if (breakerError) {
+                    open(now);
+                } else {
+                    state = State.CLOSED;
+                    windowStart = now;
+                    windowCalls = 0;
+                    windowErrors = 0;
+                }
+            } else if (!(error instanceof Rejected)) {
+                if (now - windowStart > windowNanos) {
+                    windowStart = now;
+                    windowCalls = 0;
+                    windowErrors = 0;
+                }
+                windowCalls++;
+                if (breakerError) {
+                    windowErrors++;
+                }
+                if (state == State.CLOSED && windowCalls >= minCalls
+                        && windowErrors >= errorRate * windowCalls) {
+                    open(now);
+                }
+            }
+
+            // limit
+            if (!limited) {
+                return;
+            }
+            if (overload || nanos > maxLatencyNanos) {
+                if (now - lastDecrease >= maxLatencyNanos) {
+                    limit = Math.max(minLimit, limit * backoff);
+                    lastDecrease = now;
+                }
+            } else if (error == null && inFlight + 1 >= limit / 2) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openUntil = now + openNanos;
+        opened.increment();
+    }
+
+    static boolean isOverload(Throwable error) {
+        if (error instanceof Rejected) {
+            return false;
+        }
+        if (error instanceof AerospikeException.Timeout || error instanceof AerospikeException.Connection) {
+            return true;
+        }
+        if (error instanceof AerospikeException ae) {
+            return switch (ae.getResultCode()) {
+                case ResultCode.TIMEOUT, ResultCode.DEVICE_OVERLOAD, ResultCode.KEY_BUSY,
+                     ResultCode.SERVER_NOT_AVAILABLE, ResultCode.NO_MORE_CONNECTIONS -> true;
+                default -> false;
+            };
+        }
+        return false;
+    }
+
+    private static boolean isHotKey(Throwable error) {
+        return error instanceof AerospikeException ae && ae.getResultCode() == ResultCode.KEY_BUSY;
+    }
+
+    /**
+     * Whether {@code error} or one of its causes is a call rejected by an open breaker.
+     */
+    static boolean isBreakerOpen(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof Rejected r && r.getResultCode() == ResultCode.MAX_ERROR_RATE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The exception a store throws for a failed call: {@link AerospikeUnavailableException}
+     * if the breaker rejected it, else a {@link RetryableHazelcastException}.
+     */
+    static RuntimeException failure(String message, Throwable cause) {
+        return isBreakerOpen(cause)
+                ? new AerospikeUnavailableException(message, cause)
+                : new RetryableHazelcastException(message, cause);
+    }
+
+    MapStoreMetrics.GuardStats stats() {
+        lock.lock();
+        try {
+            State s = state == State.OPEN && System.nanoTime() - openUntil >= 0 ? State.HALF_OPEN : state;
+            return new MapStoreMetrics.GuardStats((int) limit, inFlight, s.name(), rejected.sum(), opened.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.policy.Policy;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Local copies of the CDT map bin of each bucket record, used by
+ * {@link AbstractAerospikeCdtMapStore} for small, read-mostly maps.
+ * <p/>
+ * A snapshot is valid for the generation of the record it was read from. Reads check the
+ * record generation with a header-only read (no bins are sent) and are served from the
+ * snapshot while it is unchanged; otherwise the whole bin is read again. Writes of this
+ * store are applied to the snapshot as deltas when the generation they return is the next
+ * one, so a store's own writes do not force a full re-read; any other change does.
+ * <p/>
+ * With a guard bin (see {@link AbstractAerospikeCdtMapStore#operateWrite}) the snapshot also
+ * records whether the bucket was sealed when it was read; guarded reads of a sealed bucket
+ * fail. Sealing moves the generation, so it is seen by the next check.
+ * <p/>
+ * Values are kept as stored (encoded / compressed) and decoded on every read. Map keys are
+ * normalized the way Aerospike returns them: integral numbers as Long, byte[] by content.
+ * <p/>
+ * Properties:
+ *  - aerospike.cdt.snapshot.enabled         = true|false (default: false)
+ *  - aerospike.cdt.snapshot.maxStalenessMs  = skip the generation check for this long after
+ *    the last one (default: 0, check on every read). Values above 0 trade freshness
+ *    against writes from other members for fewer round trips.
+ */
+final class CdtSnapshots {
+
+    private final IAerospikeClient client;
+    private final Policy readPolicy;
+    private final Key[] bucketKeys;
+    private final String binName;
+    private final String guardBin;
+    private final long maxStalenessNanos;
+    private final AtomicReferenceArray<Snapshot> snapshots;
+
+    CdtSnapshots(Properties properties, IAerospikeClient client, Policy readPolicy, Key[] bucketKeys,
+                 String binName, String guardBin) {
+        this.client = client;
+        this.readPolicy = readPolicy;
+        this.bucketKeys = bucketKeys;
+        this.binName = binName;
+        this.guardBin = guardBin;
+        this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.parseLong(properties.getProperty("aerospike.cdt.snapshot.maxStalenessMs", "0")));
+        this.snapshots = new AtomicReferenceArray<>(bucketKeys.length);
+    }
+
+    static boolean isEnabled(Properties properties) {
+        return Boolean.parseBoolean(properties.getProperty("aerospike.cdt.snapshot.enabled", "false"));
+    }
+
+    /**
+     * Stored value of {@code mapKey}, null if absent.
+     */
+    Object get(int bucket, Value mapKey, boolean guarded) {
+        return entries(bucket, guarded).get(normalizeKey(mapKey.getObject()));
+    }
+
+    /**
+     * Entries of the bucket at its current generation, re-read if the snapshot is stale.
+     *
+     * @throws com.aerospike.client.AerospikeException with ResultCode.FILTERED_OUT if
+     *         {@code guarded} and the bucket is sealed
+     */
+    Map<Object, Object> entries(int bucket, boolean guarded) {
+        Snapshot snapshot = current(bucket);
+        if (guarded && snapshot.sealed) {
+            throw AbstractAerospikeCdtMapStore.sealed(bucketKeys[bucket], guardBin);
+        }
+        return snapshot.entries;
+    }
+
+    private Snapshot current(int bucket) {
+        Snapshot snapshot = snapshots.get(bucket);
+        if (snapshot != null) {
+            long now = System.nanoTime();
+            if (maxStalenessNanos > 0 && now - snapshot.checkedAt < maxStalenessNanos) {
+                return snapshot;
+            }
+            Record header = client.getHeader(readPolicy, bucketKeys[bucket]);
+            if (generation(header) == snapshot.generation) {
+                snapshot.checkedAt = now;
+                return snapshot;
+            }
+        }
+        return refresh(bucket);
+    }
+
+    private Snapshot refresh(int bucket) {
+        long now = System.nanoTime();
+        Record record = guardBin != null
+                ? client.get(readPolicy, bucketKeys[bucket], binName, guardBin)
+                : client.get(readPolicy, bucketKeys[bucket], binName);
+        boolean sealed = guardBin != null && record != null && record.getValue(guardBin) != null;
+        Snapshot snapshot = new Snapshot(generation(record), now, sealed);
+        Map<?, ?> raw = record != null ? record.getMap(binName) : null;
+        if (raw != null) {
+            for (Map.Entry<?, ?> e : raw.entrySet()) {
+                if (e.getValue() != null) {
+                    snapshot.entries.put(normalizeKey(e.getKey()), e.getValue());
+                }
+            }
+        }
+        snapshots.set(bucket, snapshot);
+        return snapshot;
+    }
+
+    // ---------------------------------------------------------
+    // Deltas of this store's own writes
+    // ---------------------------------------------------------
+
+    /**
+     * Applies a successful write operate; {@code result} is the record it returned. One
+     * operate may both put and remove (see {@link CdtWriteCombiner}) and still moves the
+     * generation by one, so the whole delta is applied at once. Either side may be null.
+     */
+    void apply(int bucket, Record result, Map<Value, Value> puts, Collection<Value> removes) {
+        Snapshot snapshot = snapshots.get(bucket);
+        if (snapshot == null) {
+            return;
+        }
+        synchronized (snapshot) {
+            if (!isNext(snapshot, result)) {
+                snapshots.compareAndSet(bucket, snapshot, null);
+                return;
+            }
+            if (puts != null) {
+                for (Map.Entry<Value, Value> e : puts.entrySet()) {
+                    Object key = normalizeKey(e.getKey().getObject());
+                    Object value = normalizeNumber(e.getValue().getObject());
+                    if (value != null) {
+                        snapshot.entries.put(key, value);
+                    } else {
+                        snapshot.entries.remove(key);
+                    }
+                }
+            }
+            if (removes != null) {
+                for (Value mapKey : removes) {
+                    snapshot.entries.remove(normalizeKey(mapKey.getObject()));
+                }
+            }
+            snapshot.generation = result.generation;
+        }
+    }
+
+    /**
+     * Drops the snapshot after a failed or in-doubt write.
+     */
+    void invalidate(int bucket) {
+        snapshots.set(bucket, null);
+    }
+
+    /**
+     * The write moved the record exactly one generation past the snapshot, so nobody else
+     * wrote in between.
+     */
+    private static boolean isNext(Snapshot snapshot, Record result) {
+        return result != null && result.generation == snapshot.generation + 1;
+    }
+
+    private static int generation(Record record) {
+        return record != null ? record.generation : 0;
+    }
+
+    /**
+     * Map key as Aerospike returns it, with byte[] wrapped so that it compares by content.
+     */
+    static Object normalizeKey(Object o) {
+        return o instanceof byte[] bytes ? ByteBuffer.wrap(bytes) : normalizeNumber(o);
+    }
+
+    /**
+     * Number as Aerospike returns it: integral numbers as Long, floats as Double.
+     */
+    static Object normalizeNumber(Object o) {
+        if (o instanceof Integer || o instanceof Short || o instanceof Byte) {
+            return ((Number) o).longValue();
+        }
+        if (o instanceof Float f) {
+            return f.doubleValue();
+        }
+        return o;
+    }
+
+    private static final class Snapshot {
+        private final Map<Object, Object> entries = new ConcurrentHashMap<>();
+        private final boolean sealed;
+        private volatile int generation;
+        private volatile long checkedAt;
+
+        Snapshot(int generation, long checkedAt, boolean sealed) {
+            this.generation = generation;
+            this.checkedAt = checkedAt;
+            this.sealed = sealed;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Group commit for the single-entry store() / delete() calls of
+ * {@link AbstractAerospikeCdtMapStore}.
+ * <p/>
+ * All entries of a bucket live in one record, so concurrent writes queue up on its record
+ * lock anyway. Here the first caller of a bucket becomes the leader and writes; callers
+ * arriving meanwhile queue up, and the next batch (at most "maxBatch" entries and the
+ * store's byte budget) is written by one of them as a single operate with putItems and
+ * removeByKeyList. The last write of a key in a batch wins. Every caller waits for the
+ * write that carries its entry and sees its outcome.
+ * <p/>
+ * There is no timer: an uncontended call is written at once, and batches grow with the
+ * load. "windowMicros" optionally makes the leader wait for more callers before writing.
+ * <p/>
+ * Properties:
+ *  - aerospike.cdt.combine.enabled      = true|false (default: true)
+ *  - aerospike.cdt.combine.maxBatch     = max entries per combined operate (default: 1024)
+ *  - aerospike.cdt.combine.windowMicros = leader wait before writing (default: 0)
+ */
+final class CdtWriteCombiner {
+
+    /**
+     * Writes one merged batch to a bucket; throws if the operate failed.
+     */
+    interface Writer {
+        void write(int bucket, Map<Value, Value> puts, List<Value> removes);
+    }
+
+    private final Slot[] slots;
+    private final int maxBatch;
+    private final int maxBytes;
+    private final long windowNanos;
+    private final Writer writer;
+
+    CdtWriteCombiner(Properties properties, int buckets, int maxBytes, Writer writer) {
+        this.maxBatch = Integer.parseInt(properties.getProperty("aerospike.cdt.combine.maxBatch", "1024"));
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("aerospike.cdt.combine.maxBatch must be > 0: " + maxBatch);
+        }
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(
+                Long.parseLong(properties.getProperty("aerospike.cdt.combine.windowMicros", "0")));
+        this.maxBytes = maxBytes;
+        this.writer = writer;
+        this.slots = new Slot[buckets];
+        for (int i = 0; i < buckets; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    static boolean isEnabled(Properties properties) {
+        return Boolean.parseBoolean(properties.getProperty("aerospike.cdt.combine.enabled", "true"));
+    }
+
+    /**
+     * Puts {@code value}, or removes the key if {@code value} is null, and returns once the
+     * write is done.
+     */
+    void write(int bucket, Value mapKey, Value value, int estimatedBytes) {
+        Slot slot = slots[bucket];
+        Pending pending = new Pending(mapKey, value, estimatedBytes);
+        boolean leader;
+        synchronized (slot) {
+            slot.queue.add(pending);
+            leader = !slot.busy;
+            slot.busy = true;
+        }
+        if (!leader) {
+            pending.awaitTurn();
+            if (!pending.promoted) {
+                pending.rethrow();
+                return;
+            }
+        }
+        lead(bucket, slot);
+        pending.rethrow();
+    }
+
+    /**
+     * Writes the batch at the head of the queue, which holds the leader's own entry, then
+     * hands leadership to the first caller still queued.
+     */
+    private void lead(int bucket, Slot slot) {
+        if (windowNanos > 0) {
+            LockSupport.parkNanos(windowNanos);
+        }
+
+        List<Pending> batch = new ArrayList<>();
+        synchronized (slot) {
+            int bytes = 0;
+            while (!slot.queue.isEmpty() && batch.size() < maxBatch) {
+                Pending next = slot.queue.peek();
+                if (!batch.isEmpty() && bytes + next.bytes > maxBytes) {
+                    break;
+                }
+                batch.add(slot.queue.poll());
+                bytes += next.bytes;
+            }
+        }
+
+        Throwable error = null;
+        try {
+            // last write of a key wins
+            Map<Object, Pending> merged = new LinkedHashMap<>();
+            for (Pending p : batch) {
+                merged.put(CdtSnapshots.normalizeKey(p.mapKey.getObject()), p);
+            }
+            Map<Value, Value> puts = new HashMap<>();
+            List<Value> removes = new ArrayList<>();
+            for (Pending p : merged.values()) {
+                if (p.value != null) {
+                    puts.put(p.mapKey, p.value);
+                } else {
+                    removes.add(p.mapKey);
+                }
+            }
+            writer.write(bucket, puts, removes);
+        } catch (RuntimeException | Error e) {
+            error = e;
+        } finally {
+            // whatever happened, the batch is done and the slot must move on, or the callers
+            // queued behind it would wait forever
+            Pending next;
+            synchronized (slot) {
+                next = slot.queue.peek();
+                if (next == null) {
+                    slot.busy = false;
+                }
+            }
+            for (Pending p : batch) {
+                p.complete(error);
+            }
+            if (next != null) {
+                next.promote();
+            }
+        }
+    }
+
+    private static final class Slot {
+        private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        private boolean busy;
+    }
+
+    private static final class Pending {
+        private final Value mapKey;
+        private final Value value;
+        private final int bytes;
+        private final CountDownLatch turn = new CountDownLatch(1);
+        private volatile boolean promoted;
+        private volatile Throwable error;
+
+        Pending(Value mapKey, Value value, int bytes) {
+            this.mapKey = mapKey;
+            this.value = value;
+            this.bytes = bytes;
+        }
+
+        void complete(Throwable e) {
+            this.error = e;
+            turn.countDown();
+        }
+
+        void promote() {
+            this.promoted = true;
+            turn.countDown();
+        }
+
+        void awaitTurn() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    turn.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // the entry is queued and will be written: wait for the outcome
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void rethrow() {
+            if (error instanceof RuntimeException e) {
+                throw e;
+            }
+            if (error instanceof Error e) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link ValueCodec} using java.util.zip Deflate without zlib header.
+ * <p/>
+ * Deflater / Inflater hold native memory and are costly to create, so one of each is kept
+ * per thread and reset between values.
+ */
+public final class DeflateCodec implements ValueCodec {
+
+    static final byte ID = 1;
+
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCodec(int level) {
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public int compress(byte[] src, byte[] dst, int dstOffset, int maxLength) {
+        Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(src);
+            deflater.finish();
+            int written = 0;
+            while (!deflater.finished() && written < maxLength) {
+                written += deflater.deflate(dst, dstOffset + written, maxLength - written);
+            }
+            return deflater.finished() ? written : -1;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int offset, int length, byte[] dst) {
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(src, offset, length);
+            int read = 0;
+            while (read < dst.length) {
+                int n = inflater.inflate(dst, read, dst.length - read);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != dst.length) {
+                throw new IllegalStateException("Truncated deflate value: " + read + " of " + dst.length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt deflate value", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+}
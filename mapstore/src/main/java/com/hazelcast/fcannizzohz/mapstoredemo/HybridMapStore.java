@@ -0,0 +1,755 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.exp.Exp;
+import com.aerospike.client.exp.ExpOperation;
+import com.aerospike.client.exp.ExpReadFlags;
+import com.aerospike.client.policy.GenerationPolicy;
+import com.aerospike.client.policy.RecordExistsAction;
+import com.aerospike.client.policy.WritePolicy;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Logger;
+import com.hazelcast.map.MapLoaderLifecycleSupport;
+import com.hazelcast.map.MapStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MapStore that starts in the CDT layout (see {@link AbstractAerospikeCdtMapStore}) and moves
+ * the map to one record per entry (see {@link AbstractAerospikeRecordMapStore}) once it
+ * outgrows the CDT thresholds. Small maps keep the single-record fast path; big ones stop
+ * hitting the record size limit and the record lock.
+ * <p/>
+ * The layout is kept in a "layout" bin of the bucket records: absent (CDT), "migrating" or
+ * "record". It only moves forward. The CDT store runs with that bin as its write guard, so
+ * once a record is sealed every CDT write to it fails and the member switches over,
+ * whatever its own view of the layout was. CDT reads fetch the bin in the same operate, so
+ * a member never reads a sealed CDT alone either; the layout is also re-read every
+ * "checkIntervalMs".
+ * <p/>
+ * Every member checks the entry count and the record sizes of the buckets at that interval.
+ * Past a threshold one member wins the migration lease on bucket 0 and, on its monitor
+ * thread, seals all buckets and moves the entries page by page:
+ *  - each entry is written to its own record, create-only, so a newer value already written
+ *    to the record layout wins. The copy also gets a "layoutCopy" bin naming the member that
+ *    made it, left in place afterwards;
+ *  - the page is removed from the CDT only if the bucket generation did not change since the
+ *    page was read. Otherwise a concurrent delete may have run: records created for keys
+ *    that are no longer in the CDT are deleted again, unless they are no longer the
+ *    untouched copy of this member (the "layoutCopy" bin and generation 1).
+ * While migrating, reads try the entry record first and then the CDT, stores go to the
+ * entry records and deletes remove the key from both. Reads and writes never wait for the
+ * migration. If the migrating member goes away, another one takes over after the lease.
+ * <p/>
+ * Entry records live in their own set, so set scans do not see the bucket records.
+ * Entries are stored without expiration time: a CDT map entry has no TTL of its own.
+ * <p/>
+ * Properties (on top of the ones of both stores):
+ *  - aerospike.hybrid.maxEntries        = entries that trigger the migration (default: 10000)
+ *  - aerospike.hybrid.maxRecordBytes    = bucket record size that triggers it (default: 512 KiB)
+ *  - aerospike.hybrid.checkIntervalMs   = threshold and layout check period (default: 1000)
+ *  - aerospike.hybrid.migrationPageSize = entries moved per step (default: 1000)
+ *  - aerospike.hybrid.leaseMs           = migration lease, renewed every step (default: 30000)
+ *  - aerospike.hybrid.recordSet         = set of the entry records (default: "&lt;set&gt;_records")
+ */
+public abstract class HybridMapStore<K, V>
+        implements MapStore<K, V>, MapLoaderLifecycleSupport, Closeable {
+
+    /**
+     * Storage layout of the map, in the order it moves through.
+     */
+    public enum Layout {
+        CDT,
+        MIGRATING,
+        RECORD
+    }
+
+    static final String LAYOUT_BIN = "layout";
+    private static final String OWNER_BIN = "layoutOwner";
+    private static final String UNTIL_BIN = "layoutUntil";
+    private static final String SIZE_BIN = "recsize";
+
+    /**
+     * Bin of the entry records created by a migration, holding the token of the member
+     * that copied the entry, see {@link #undoDeleted}.
+     */
+    static final String COPY_BIN = "layoutCopy";
+
+    private static final ILogger LOGGER = Logger.getLogger(HybridMapStore.class);
+
+    private AbstractAerospikeCdtMapStore<K, V> cdt;
+    private AbstractAerospikeRecordMapStore<K, V> records;
+    private IAerospikeClient client;
+    private Key[] bucketKeys;
+    private String mapBinName;
+
+    private volatile Layout layout = Layout.CDT;
+    private volatile boolean closed;
+
+    private long maxEntries;
+    private long maxRecordBytes;
+    private int pageSize;
+    private long leaseMs;
+
+    /**
+     * Identifies this store as the lease owner.
+     */
+    private final String token = UUID.randomUUID().toString();
+
+    /**
+     * Runs the threshold checks and the migration.
+     */
+    private ScheduledExecutorService monitor;
+
+    /**
+     * Store of the CDT layout. It is initialized with the "layout" bin as its write guard.
+     */
+    protected abstract AbstractAerospikeCdtMapStore<K, V> createCdtStore();
+
+    /**
+     * Store of the record-per-entry layout.
+     */
+    protected abstract AbstractAerospikeRecordMapStore<K, V> createRecordStore();
+
+    // ---------------------------------------------------------
+    // Lifecycle
+    // ---------------------------------------------------------
+
+    @Override
+    public void init(HazelcastInstance hazelcastInstance,
+                     Properties properties,
+                     String mapName) {
+
+        this.maxEntries = Long.parseLong(properties.getProperty("aerospike.hybrid.maxEntries", "10000"));
+        this.maxRecordBytes = Long.parseLong(properties.getProperty("aerospike.hybrid.maxRecordBytes",
+                String.valueOf(512 * 1024)));
+        this.pageSize = Integer.parseInt(properties.getProperty("aerospike.hybrid.migrationPageSize", "1000"));
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("aerospike.hybrid.migrationPageSize must be > 0: " + pageSize);
+        }
+        this.leaseMs = Long.parseLong(properties.getProperty("aerospike.hybrid.leaseMs", "30000"));
+        long checkIntervalMs = Long.parseLong(properties.getProperty("aerospike.hybrid.checkIntervalMs", "1000"));
+        if (checkIntervalMs <= 0) {
+            throw new IllegalArgumentException("aerospike.hybrid.checkIntervalMs must be > 0: " + checkIntervalMs);
+        }
+
+        Properties cdtProperties = new Properties();
+        cdtProperties.putAll(properties);
+        cdtProperties.setProperty("aerospike.cdt.guardBin", LAYOUT_BIN);
+
+        Properties recordProperties = new Properties();
+        recordProperties.putAll(properties);
+        recordProperties.setProperty("aerospike.set", properties.getProperty("aerospike.hybrid.recordSet",
+                properties.getProperty("aerospike.set", mapName) + "_records"));
+
+        this.cdt = createCdtStore();
+        this.records = createRecordStore();
+        cdt.init(hazelcastInstance, cdtProperties, mapName);
+        records.init(hazelcastInstance, recordProperties, mapName);
+
+        this.client = cdt.client;
+        this.bucketKeys = cdt.bucketKeys();
+        this.mapBinName = cdt.mapBinName;
+
+        refreshLayout();
+
+        this.monitor = Executors.newSingleThreadScheduledExecutor(
+                PartitionScan.daemonThreads("aerospike-hybrid-" + mapName));
+        monitor.scheduleWithFixedDelay(this::check, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Stops the monitor; a migration in progress stops after its current page and is taken
+     * over by another member once the lease expires.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (monitor != null) {
+            monitor.shutdown();
+        }
+        if (cdt != null) {
+            cdt.close();
+        }
+        if (records != null) {
+            records.close();
+        }
+    }
+
+    /**
+     * Layout as last seen by this member.
+     */
+    public Layout layout() {
+        return layout;
+    }
+
+    // ---------------------------------------------------------
+    // MapStore operations – routed by layout
+    // ---------------------------------------------------------
+
+    /**
+     * In the CDT layout the read also checks the layout bin of the bucket (see
+     * {@link AbstractAerospikeCdtMapStore#load}); once the bucket is sealed it goes on with
+     * the new layout.
+     * <p/>
+     * While migrating, a key missing from both its record and the CDT may have been moved
+     * between the two reads, so its record is read once more: the copy is written before
+     * the CDT entry is removed. Hazelcast caches a null load, so a miss must be real.
+     */
+    @Override
+    public V load(K key) {
+        if (layout == Layout.CDT) {
+            try {
+                return cdt.load(key);
+            } catch (RuntimeException e) {
+                switchIfSealed(e);
+            }
+        }
+        return switch (layout) {
+            case CDT -> cdt.load(key);
+            case MIGRATING -> {
+                V value = records.loadValue(key);
+                if (value == null) {
+                    value = cdt.loadUnguarded(key);
+                }
+                yield value != null ? value : records.loadValue(key);
+            }
+            case RECORD -> records.loadValue(key);
+        };
+    }
+
+    /**
+     * Reads like load(): records, then the CDT, then again the records of keys still missing.
+     */
+    @Override
+    public Map<K, V> loadAll(Collection<K> keys) {
+        if (layout == Layout.CDT) {
+            try {
+                return cdt.loadAll(keys);
+            } catch (RuntimeException e) {
+                switchIfSealed(e);
+            }
+        }
+        return switch (layout) {
+            case CDT -> cdt.loadAll(keys);
+            case MIGRATING -> {
+                Map<K, V> result = records.loadValues(keys);
+                List<K> missing = missing(keys, result);
+                if (!missing.isEmpty()) {
+                    result.putAll(cdt.loadAllUnguarded(missing));
+                    missing = missing(missing, result);
+                    if (!missing.isEmpty()) {
+                        result.putAll(records.loadValues(missing));
+                    }
+                }
+                yield result;
+            }
+            case RECORD -> records.loadValues(keys);
+        };
+    }
+
+    private static <K> List<K> missing(Collection<K> keys, Map<K, ?> found) {
+        List<K> missing = new ArrayList<>();
+        for (K k : keys) {
+            if (!found.containsKey(k)) {
+                missing.add(k);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * While migrating, the keys still in the CDT come first and are collected, so that the
+     * keys already moved are not returned twice; the CDT is below the thresholds, which
+     * bounds that set. Closing the result closes both key streams.
+     */
+    @Override
+    public Iterable<K> loadAllKeys() {
+        return switch (layout) {
+            case CDT -> cdt.loadAllKeys();
+            case MIGRATING -> new MigratingKeys(cdt.loadAllKeys(), records.loadAllKeys());
+            case RECORD -> records.loadAllKeys();
+        };
+    }
+
+    @Override
+    public void store(K key, V value) {
+        if (layout == Layout.CDT) {
+            try {
+                cdt.store(key, value);
+                return;
+            } catch (RuntimeException e) {
+                switchIfSealed(e);
+            }
+        }
+        records.storeValue(key, value);
+    }
+
+    @Override
+    public void storeAll(Map<K, V> map) {
+        if (layout == Layout.CDT) {
+            try {
+                cdt.storeAll(map);
+                return;
+            } catch (RuntimeException e) {
+                // the map now holds only the entries that were not written
+                switchIfSealed(e);
+            }
+        }
+        records.storeValues(map);
+    }
+
+    /**
+     * While migrating the key is removed from the CDT first, so that a read in between
+     * cannot find the old value there once the record is gone.
+     */
+    @Override
+    public void delete(K key) {
+        if (layout == Layout.CDT) {
+            try {
+                cdt.delete(key);
+                return;
+            } catch (RuntimeException e) {
+                switchIfSealed(e);
+            }
+        }
+        if (layout == Layout.MIGRATING) {
+            removeFromCdt(List.of(key));
+        }
+        records.delete(key);
+    }
+
+    @Override
+    public void deleteAll(Collection<K> keys) {
+        if (layout == Layout.CDT) {
+            try {
+                cdt.deleteAll(keys);
+                return;
+            } catch (RuntimeException e) {
+                switchIfSealed(e);
+            }
+        }
+        if (layout == Layout.MIGRATING) {
+            removeFromCdt(keys);
+        }
+        records.deleteAll(keys);
+    }
+
+    /**
+     * Rethrows {@code e} unless it comes from the write guard of a sealed bucket, in which
+     * case the layout is re-read and the caller goes on with the new one.
+     */
+    private void switchIfSealed(RuntimeException e) {
+        if (!isSealed(e)) {
+            throw e;
+        }
+        refreshLayout();
+        if (layout == Layout.CDT) {
+            // sealed bucket, but bucket 0 not yet: the migration is starting
+            observe(Layout.MIGRATING);
+        }
+    }
+
+    private static boolean isSealed(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof AerospikeException ae && ae.getResultCode() == ResultCode.FILTERED_OUT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes keys from the sealed CDT, bypassing the write guard.
+     */
+    private void removeFromCdt(Collection<K> keys) {
+        Map<Integer, List<Value>> byBucket = new HashMap<>();
+        for (K k : keys) {
+            if (k != null) {
+                Value mapKey = cdt.toAerospikeMapKey(k);
+                byBucket.computeIfAbsent(cdt.bucketOf(mapKey), b -> new ArrayList<>()).add(mapKey);
+            }
+        }
+        for (Map.Entry<Integer, List<Value>> e : byBucket.entrySet()) {
+            cdt.operateUnguarded(cdt.deletePolicy(), e.getKey(),
+                    MapOperation.removeByKeyList(mapBinName, e.getValue(), MapReturnType.NONE));
+        }
+    }
+
+    // ---------------------------------------------------------
+    // Layout state
+    // ---------------------------------------------------------
+
+    private void refreshLayout() {
+        Record record = client.get(cdt.readPolicy(), bucketKeys[0], LAYOUT_BIN);
+        observe(parse(record));
+    }
+
+    private void observe(Layout seen) {
+        // the layout only moves forward
+        synchronized (this) {
+            if (seen.ordinal() > layout.ordinal()) {
+                layout = seen;
+            }
+        }
+    }
+
+    private static Layout parse(Record record) {
+        String state = record != null ? record.getString(LAYOUT_BIN) : null;
+        if (state == null) {
+            return Layout.CDT;
+        }
+        return "record".equals(state) ? Layout.RECORD : Layout.MIGRATING;
+    }
+
+    /**
+     * Periodic check: reads the layout, entry count and record size of every bucket and
+     * migrates if a threshold is passed, or if a migration was left without an owner.
+     */
+    private void check() {
+        if (closed || layout == Layout.RECORD) {
+            return;
+        }
+        try {
+            long entries = 0;
+            long largest = 0;
+            Layout seen = Layout.CDT;
+            long leaseUntil = Long.MAX_VALUE;
+            for (int b = 0; b < bucketKeys.length; b++) {
+                Record record = client.operate(cdt.readOperatePolicy(), bucketKeys[b],
+                        MapOperation.size(mapBinName),
+                        ExpOperation.read(SIZE_BIN, Exp.build(Exp.recordSize()), ExpReadFlags.DEFAULT),
+                        Operation.get(LAYOUT_BIN),
+                        Operation.get(UNTIL_BIN));
+                if (record == null) {
+                    continue;
+                }
+                entries += record.getLong(mapBinName);
+                largest = Math.max(largest, record.getLong(SIZE_BIN));
+                if (b == 0) {
+                    seen = parse(record);
+                    leaseUntil = record.getLong(UNTIL_BIN);
+                }
+            }
+            observe(seen);
+
+            boolean start = layout == Layout.CDT && (entries > maxEntries || largest > maxRecordBytes);
+            boolean takeOver = layout == Layout.MIGRATING && leaseUntil < System.currentTimeMillis();
+            if ((start || takeOver) && acquireLease()) {
+                migrate();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warning("Layout check of " + bucketKeys[0] + " failed, retrying in the next check", e);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // Migration
+    // ---------------------------------------------------------
+
+    /**
+     * Takes the migration over on bucket 0 if no migration started yet, or if the lease of
+     * the one in progress expired.
+     */
+    private boolean acquireLease() {
+        long now = System.currentTimeMillis();
+        WritePolicy policy = new WritePolicy(cdt.writePolicy());
+        policy.filterExp = Exp.build(Exp.or(
+                Exp.not(Exp.binExists(LAYOUT_BIN)),
+                Exp.and(Exp.eq(Exp.stringBin(LAYOUT_BIN), Exp.val("migrating")),
+                        Exp.lt(Exp.intBin(UNTIL_BIN), Exp.val(now)))));
+        try {
+            client.operate(policy, bucketKeys[0],
+                    Operation.put(new Bin(LAYOUT_BIN, "migrating")),
+                    Operation.put(new Bin(OWNER_BIN, token)),
+                    Operation.put(new Bin(UNTIL_BIN, now + leaseMs)));
+        } catch (AerospikeException e) {
+            if (e.getResultCode() == ResultCode.FILTERED_OUT) {
+                return false;
+            }
+            throw e;
+        }
+        observe(Layout.MIGRATING);
+        return true;
+    }
+
+    /**
+     * Extends the lease; false if another member took the migration over.
+     */
+    private boolean renewLease() {
+        try {
+            client.operate(ownerPolicy(), bucketKeys[0],
+                    Operation.put(new Bin(UNTIL_BIN, System.currentTimeMillis() + leaseMs)));
+            return true;
+        } catch (AerospikeException e) {
+            if (e.getResultCode() == ResultCode.FILTERED_OUT) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private WritePolicy ownerPolicy() {
+        WritePolicy policy = new WritePolicy(cdt.writePolicy());
+        policy.filterExp = Exp.build(Exp.eq(Exp.stringBin(OWNER_BIN), Exp.val(token)));
+        return policy;
+    }
+
+    private void migrate() {
+        // stale members must stop writing to every bucket before entries move
+        for (int b = 1; b < bucketKeys.length; b++) {
+            client.operate(cdt.writePolicy(), bucketKeys[b], Operation.put(new Bin(LAYOUT_BIN, "migrating")));
+        }
+
+        long moved = 0;
+        for (int b = 0; b < bucketKeys.length; b++) {
+            while (true) {
+                if (closed || !renewLease()) {
+                    return;
+                }
+                int n = migratePage(b);
+                if (n == 0) {
+                    break;
+                }
+                moved += n;
+            }
+        }
+
+        for (int b = 1; b < bucketKeys.length; b++) {
+            client.operate(cdt.writePolicy(), bucketKeys[b], Operation.put(new Bin(LAYOUT_BIN, "record")));
+        }
+        try {
+            client.operate(ownerPolicy(), bucketKeys[0], Operation.put(new Bin(LAYOUT_BIN, "record")));
+        } catch (AerospikeException e) {
+            if (e.getResultCode() == ResultCode.FILTERED_OUT) {
+                return;
+            }
+            throw e;
+        }
+        observe(Layout.RECORD);
+        LOGGER.info("Moved " + moved + " entries of " + bucketKeys[0] + " to one record per entry");
+    }
+
+    /**
+     * Moves the first page of a bucket to entry records.
+     *
+     * @return the number of entries read, 0 once the bucket is empty
+     */
+    @SuppressWarnings("unchecked")
+    private int migratePage(int bucket) {
+        Record page = client.operate(cdt.readOperatePolicy(), bucketKeys[bucket],
+                MapOperation.getByIndexRange(mapBinName, 0, pageSize, MapReturnType.KEY_VALUE));
+        List<Map.Entry<?, ?>> entries = page != null ? entries(page.getValue(mapBinName)) : List.of();
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        WritePolicy createOnly = new WritePolicy(records.writePolicy());
+        createOnly.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+
+        Operation copiedBy = Operation.put(new Bin(COPY_BIN, token));
+        List<Value> mapKeys = new ArrayList<>(entries.size());
+        List<K> created = new ArrayList<>();
+        for (Map.Entry<?, ?> e : entries) {
+            K key = (K) e.getKey();
+            mapKeys.add(Value.get(e.getKey()));
+            V value = cdt.decodeMapValue(key, e.getValue());
+            if (value == null) {
+                continue;
+            }
+            try {
+                Operation[] ops = records.entryOperations(key, value);
+                Operation[] tagged = Arrays.copyOf(ops, ops.length + 1);
+                tagged[ops.length] = copiedBy;
+                client.operate(createOnly, records.toAerospikeKey(key), tagged);
+                created.add(key);
+            } catch (AerospikeException ex) {
+                // stored in the record layout since: that value is newer
+                if (ex.getResultCode() != ResultCode.KEY_EXISTS_ERROR) {
+                    throw ex;
+                }
+            }
+        }
+
+        WritePolicy unchanged = new WritePolicy(cdt.deletePolicy());
+        unchanged.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+        unchanged.generation = page.generation;
+        try {
+            cdt.operateUnguarded(unchanged, bucket,
+                    MapOperation.removeByKeyList(mapBinName, mapKeys, MapReturnType.NONE));
+        } catch (AerospikeException ex) {
+            if (ex.getResultCode() != ResultCode.GENERATION_ERROR) {
+                throw ex;
+            }
+            undoDeleted(bucket, created);
+        }
+        return entries.size();
+    }
+
+    /**
+     * The bucket changed while its page was copied: entries removed from the CDT meanwhile
+     * were deleted, so their copies go too. Only a record that is still this member's copy
+     * is deleted: it must carry this member's token in {@link #COPY_BIN} (a record deleted
+     * and stored again since has none, even at generation 1, as deletes are not durable) and
+     * be at generation 1 (a copy updated since keeps the bin, but not its generation).
+     */
+    private void undoDeleted(int bucket, List<K> created) {
+        if (created.isEmpty()) {
+            return;
+        }
+        List<Value> mapKeys = new ArrayList<>(created.size());
+        for (K k : created) {
+            mapKeys.add(cdt.toAerospikeMapKey(k));
+        }
+        Record record = client.operate(cdt.readOperatePolicy(), bucketKeys[bucket],
+                MapOperation.getByKeyList(mapBinName, mapKeys, MapReturnType.KEY));
+        Set<Object> present = new HashSet<>();
+        List<?> found = record != null ? record.getList(mapBinName) : null;
+        if (found != null) {
+            for (Object k : found) {
+                present.add(CdtSnapshots.normalizeKey(k));
+            }
+        }
+
+        WritePolicy ownCopy = new WritePolicy(records.deletePolicy());
+        ownCopy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+        ownCopy.generation = 1;
+        ownCopy.filterExp = Exp.build(Exp.and(
+                Exp.binExists(COPY_BIN),
+                Exp.eq(Exp.stringBin(COPY_BIN), Exp.val(token))));
+        for (int i = 0; i < created.size(); i++) {
+            if (present.contains(CdtSnapshots.normalizeKey(mapKeys.get(i).getObject()))) {
+                continue;
+            }
+            try {
+                client.delete(ownCopy, records.toAerospikeKey(created.get(i)));
+            } catch (AerospikeException ex) {
+                if (ex.getResultCode() != ResultCode.GENERATION_ERROR
+                        && ex.getResultCode() != ResultCode.FILTERED_OUT) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * loadAllKeys() result while migrating: the CDT keys, then the entry record keys not
+     * seen in the CDT. The record scan starts only once the CDT keys are exhausted.
+     */
+    private final class MigratingKeys implements Iterable<K>, Closeable {
+        private final Iterable<K> cdtKeys;
+        private final Iterable<K> recordKeys;
+
+        MigratingKeys(Iterable<K> cdtKeys, Iterable<K> recordKeys) {
+            this.cdtKeys = cdtKeys;
+            this.recordKeys = recordKeys;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            return new Iterator<K>() {
+                private final Set<K> seen = new HashSet<>();
+                private final Iterator<K> cdtIt = cdtKeys.iterator();
+                private Iterator<K> recordIt;
+                private K next;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null) {
+                        if (cdtIt.hasNext()) {
+                            next = cdtIt.next();
+                            seen.add(next);
+                        } else {
+                            if (recordIt == null) {
+                                recordIt = recordKeys.iterator();
+                            }
+                            if (!recordIt.hasNext()) {
+                                return false;
+                            }
+                            K k = recordIt.next();
+                            if (!seen.contains(k)) {
+                                next = k;
+                            }
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public K next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    K k = next;
+                    next = null;
+                    return k;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                closeKeys(cdtKeys);
+            } finally {
+                closeKeys(recordKeys);
+            }
+        }
+
+        private void closeKeys(Iterable<K> keys) throws IOException {
+            if (keys instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    /**
+     * Entries of a KEY_VALUE map read, returned as a list of entries or as a map depending
+     * on the client version.
+     */
+    private static List<Map.Entry<?, ?>> entries(Object raw) {
+        List<Map.Entry<?, ?>> entries = new ArrayList<>();
+        if (raw instanceof Map<?, ?> map) {
+            entries.addAll(map.entrySet());
+        } else if (raw instanceof List<?> list) {
+            for (Object o : list) {
+                entries.add((Map.Entry<?, ?>) o);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,167 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.AerospikeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the independent blocking Aerospike calls of one MapStore call side by side: the
+ * batch chunks of loadAll(), the bucket operates of the CDT store, the slices of a
+ * partition scan. One instance per store.
+ * <p/>
+ * A fan-out of n tasks starts up to "parallelism" workers, which take the tasks in order
+ * until none is left; the caller is always one of the workers. The other workers run on:
+ *  - virtual threads, with "aerospike.execution.virtualThreads": one per worker, so a
+ *    blocking call costs no platform thread. "maxConcurrency" caps the tasks in flight
+ *    across all fan-outs of the store, the caller's included.
+ *  - otherwise a platform thread pool of at most "threads" threads; when it is exhausted
+ *    the caller runs the extra workers itself, one after the other.
+ * <p/>
+ * Properties:
+ *  - aerospike.execution.virtualThreads = true|false (default: false)
+ *  - aerospike.execution.maxConcurrency = tasks in flight on virtual threads (default: 256)
+ *  - aerospike.execution.threads        = max platform threads (default: 2 x available processors)
+ */
+final class IoExecutor {
+
+    /**
+     * One task of a fan-out.
+     */
+    interface Task {
+        void run(int index);
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    IoExecutor(Properties properties, String name) {
+        if (Boolean.parseBoolean(properties.getProperty("aerospike.execution.virtualThreads", "false"))) {
+            int maxConcurrency = Integer.parseInt(properties.getProperty("aerospike.execution.maxConcurrency", "256"));
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("aerospike.execution.maxConcurrency must be > 0: " + maxConcurrency);
+            }
+            this.permits = new Semaphore(maxConcurrency);
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        } else {
+            int threads = Integer.parseInt(properties.getProperty("aerospike.execution.threads",
+                    String.valueOf(2 * Runtime.getRuntime().availableProcessors())));
+            if (threads <= 0) {
+                throw new IllegalArgumentException("aerospike.execution.threads must be > 0: " + threads);
+            }
+            this.permits = null;
+            this.executor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    PartitionScan.daemonThreads(name), (worker, pool) -> worker.run());
+        }
+    }
+
+    /**
+     * Runs tasks 0 .. {@code tasks - 1} on up to {@code parallelism} workers and waits for
+     * all of them. With {@code failFast} no task is started after one failed.
+     * <p/>
+     * If the caller is interrupted, no further task is started, the running ones are
+     * awaited, and those that never ran report the interruption.
+     *
+     * @return the error of each task, null where it succeeded
+     */
+    RuntimeException[] runAll(int tasks, int parallelism, boolean failFast, Task task) {
+        RuntimeException[] errors = new RuntimeException[tasks];
+        boolean[] ran = new boolean[tasks];
+        AtomicInteger next = new AtomicInteger();
+
+        Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < tasks) {
+                try {
+                    run(task, i);
+                } catch (RuntimeException e) {
+                    errors[i] = e;
+                    if (failFast) {
+                        next.set(tasks);
+                    }
+                }
+                ran[i] = true;
+            }
+        };
+
+        int workers = Math.min(parallelism, tasks);
+        List<Future<?>> futures = new ArrayList<>(Math.max(0, workers - 1));
+        for (int w = 1; w < workers; w++) {
+            try {
+                futures.add(executor.submit(worker));
+            } catch (RejectedExecutionException e) {
+                // store closing: the caller's worker takes the remaining tasks
+                break;
+            }
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // stop handing out tasks, but let the running calls finish
+                    interrupted = true;
+                    next.set(tasks);
+                } catch (ExecutionException e) {
+                    // workers record task errors themselves
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < tasks; i++) {
+                if (!ran[i]) {
+                    errors[i] = new AerospikeException("Interrupted before task " + i + " ran");
+                }
+            }
+        }
+        return errors;
+    }
+
+    private void run(Task task, int index) {
+        if (permits == null) {
+            task.run(index);
+            return;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AerospikeException("Interrupted waiting to run task " + index, e);
+        }
+        try {
+            task.run(index);
+        } finally {
+            permits.release();
+        }
+    }
+
+    static RuntimeException firstError(RuntimeException[] errors) {
+        for (RuntimeException e : errors) {
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+}
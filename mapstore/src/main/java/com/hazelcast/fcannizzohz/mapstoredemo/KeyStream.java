@@ -0,0 +1,158 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.AerospikeException;
+import com.hazelcast.spi.exception.RetryableHazelcastException;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lazily produced result of loadAllKeys().
+ * <p/>
+ * A producer thread runs the scan and pushes keys into a bounded buffer; Hazelcast
+ * consumes them while the scan is still running. When the buffer is full the producer
+ * (and so the scan callbacks) block until keys are taken, so at most
+ * "aerospike.loadAllKeys.bufferSize" keys (default 10000) are held at any time.
+ * <p/>
+ * Hazelcast closes the Iterable once iteration is over; closing it early stops the scan.
+ * The Iterable can be iterated only once.
+ */
+final class KeyStream<K> implements Iterable<K>, Closeable {
+
+    /**
+     * Runs the scan, handing every key to the sink. Called on the producer thread.
+     */
+    @FunctionalInterface
+    interface Producer<K> {
+        void produce(Sink<K> sink);
+    }
+
+    /**
+     * Receives keys from the producer. Thread-safe; blocks while the buffer is full.
+     *
+     * @throws AerospikeException.ScanTerminated once the stream is closed, to abort the scan
+     */
+    @FunctionalInterface
+    interface Sink<K> {
+        void accept(K key);
+    }
+
+    private static final Object END = new Object();
+    private static final long POLL_INTERVAL_MS = 100;
+
+    private final BlockingQueue<Object> buffer;
+    private final Producer<K> producer;
+    private final String name;
+
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private Thread producerThread;
+
+    KeyStream(int bufferSize, String name, Producer<K> producer) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("aerospike.loadAllKeys.bufferSize must be > 0: " + bufferSize);
+        }
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.name = name;
+        this.producer = producer;
+    }
+
+    static int bufferSize(Properties properties) {
+        return Integer.parseInt(properties.getProperty("aerospike.loadAllKeys.bufferSize", "10000"));
+    }
+
+    @Override
+    public synchronized Iterator<K> iterator() {
+        if (producerThread != null) {
+            throw new IllegalStateException("loadAllKeys() result of " + name + " can be iterated only once");
+        }
+        producerThread = new Thread(this::runProducer, "aerospike-keys-" + name);
+        producerThread.setDaemon(true);
+        producerThread.start();
+        return new KeyIterator();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // free space so that a producer blocked on the buffer notices the close
+        buffer.clear();
+    }
+
+    private void runProducer() {
+        try {
+            producer.produce(this::offer);
+        } catch (AerospikeException.ScanTerminated e) {
+            if (!closed) {
+                failure = e;
+            }
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            enqueue(END);
+        }
+    }
+
+    private void offer(K key) {
+        if (!enqueue(key)) {
+            throw new AerospikeException.ScanTerminated();
+        }
+    }
+
+    private boolean enqueue(Object item) {
+        try {
+            while (!closed) {
+                if (buffer.offer(item, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private final class KeyIterator implements Iterator<K> {
+        private Object next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (closed) {
+                    return false;
+                }
+                try {
+                    next = buffer.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new RetryableHazelcastException("Interrupted while streaming keys of " + name, e);
+                }
+            }
+            if (next != END) {
+                return true;
+            }
+            Throwable t = failure;
+            if (t != null) {
+                throw CallGuard.failure("Aerospike loadAllKeys failed for " + name, t);
+            }
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            K key = (K) next;
+            next = null;
+            return key;
+        }
+    }
+}
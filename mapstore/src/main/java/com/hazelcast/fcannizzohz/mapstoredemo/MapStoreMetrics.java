@@ -0,0 +1,320 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.instance.impl.HazelcastInstanceImpl;
+import com.hazelcast.instance.impl.HazelcastInstanceProxy;
+import com.hazelcast.internal.metrics.DynamicMetricsProvider;
+import com.hazelcast.internal.metrics.MetricDescriptor;
+import com.hazelcast.internal.metrics.MetricsCollectionContext;
+import com.hazelcast.internal.metrics.MetricsRegistry;
+import com.hazelcast.internal.metrics.ProbeLevel;
+import com.hazelcast.internal.metrics.ProbeUnit;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, batch size and error counters of one MapStore, for every MapStore operation.
+ * <p/>
+ * Each operation records its latency and batch size in a {@link Log2Histogram}; failures
+ * are counted, timeouts separately. The time spent waiting on Aerospike ("network") is
+ * told apart from the rest of the call ("conversion": key / value mapping, compression and
+ * the store's own bookkeeping). With parallel buckets or async writes the network time of
+ * one call can exceed its latency; the conversion time of such a call is then 0.
+ * Recording allocates nothing.
+ * <p/>
+ * The counters are published through the Hazelcast metrics system, and so through JMX and
+ * Management Center, under the prefix "aerospike.mapstore" with the map name as
+ * discriminator and the tags "store" (cdt / record) and "operation":
+ * <pre>
+ *   [name=samples,store=record,operation=load]: count, errors, timeouts,
+ *       latencyMeanNanos, latencyP50Nanos, latencyP99Nanos, latencyP999Nanos, latencyMaxNanos,
+ *       batchP50, batchP99, batchMax
+ *   [name=samples,store=record]: networkNanos, conversionNanos, compressedValues,
+ *       compressionRatio, compressNanos, decompressNanos,
+ *       limit, inFlight, breakerState (0 closed, 1 open, 2 half open), rejected, breakerOpens
+ * </pre>
+ * The last five are those of the store's {@link CallGuard}, if it has one.
+ * <p/>
+ * "aerospike.metrics.enabled" (default: true) controls the publishing; the counters are
+ * kept either way. The Jet connectors turn it off for the stores of their processors,
+ * which would otherwise publish under the same name as the map's own MapStore.
+ */
+public final class MapStoreMetrics implements DynamicMetricsProvider {
+
+    /**
+     * Instrumented MapStore operations.
+     */
+    public enum Op {
+        LOAD("load"),
+        LOAD_ALL("loadAll"),
+        LOAD_ALL_KEYS("loadAllKeys"),
+        STORE("store"),
+        STORE_ALL("storeAll"),
+        DELETE("delete"),
+        DELETE_ALL("deleteAll");
+
+        private final String metricName;
+
+        Op(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    static final String PREFIX = "aerospike.mapstore";
+
+    private final String mapName;
+    private final String store;
+    private final ValueCompression compression;
+
+    private final Log2Histogram[] latency = new Log2Histogram[Op.values().length];
+    private final Log2Histogram[] batch = new Log2Histogram[Op.values().length];
+    private final LongAdder[] errors = new LongAdder[Op.values().length];
+    private final LongAdder[] timeouts = new LongAdder[Op.values().length];
+    private final LongAdder networkNanos = new LongAdder();
+    private final LongAdder conversionNanos = new LongAdder();
+
+    private volatile CallGuard guard;
+    private MetricsRegistry registry;
+
+    MapStoreMetrics(String mapName, String store, ValueCompression compression) {
+        this.mapName = mapName;
+        this.store = store;
+        this.compression = compression;
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new Log2Histogram();
+            batch[i] = new Log2Histogram();
+            errors[i] = new LongAdder();
+            timeouts[i] = new LongAdder();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // Recording
+    // ---------------------------------------------------------
+
+    /**
+     * Adds the time since {@code sentNanos} to the network time.
+     *
+     * @return that time, to pass on to {@link #done}
+     */
+    long network(long sentNanos) {
+        long nanos = System.nanoTime() - sentNanos;
+        networkNanos.add(nanos);
+        return nanos;
+    }
+
+    /**
+     * Records a completed call that started at {@code startNanos} and waited
+     * {@code networkNanos} on Aerospike.
+     */
+    void done(Op op, long startNanos, long networkNanos, int batchSize) {
+        long nanos = System.nanoTime() - startNanos;
+        latency[op.ordinal()].record(nanos);
+        batch[op.ordinal()].record(batchSize);
+        conversionNanos.add(Math.max(0, nanos - networkNanos));
+    }
+
+    /**
+     * Records a failed call; partial storeAll() / deleteAll() failures count as one error.
+     */
+    void failed(Op op, long startNanos, int batchSize, Throwable error) {
+        latency[op.ordinal()].record(System.nanoTime() - startNanos);
+        batch[op.ordinal()].record(batchSize);
+        errors[op.ordinal()].increment();
+        if (isTimeout(error)) {
+            timeouts[op.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Wraps a loadAllKeys() producer to record the whole key stream as one call, with the
+     * number of keys as batch size. Its time includes waiting for Hazelcast to take keys, so
+     * it is neither network nor conversion time. Closing the stream early is no error.
+     */
+    <K> KeyStream.Producer<K> timed(KeyStream.Producer<K> producer) {
+        return sink -> {
+            long start = System.nanoTime();
+            long[] keys = new long[1];
+            try {
+                producer.produce(key -> {
+                    keys[0]++;
+                    sink.accept(key);
+                });
+            } catch (RuntimeException e) {
+                if (!(e instanceof AerospikeException.ScanTerminated)) {
+                    failed(Op.LOAD_ALL_KEYS, start, (int) Math.min(Integer.MAX_VALUE, keys[0]), e);
+                }
+                throw e;
+            }
+            long nanos = System.nanoTime() - start;
+            done(Op.LOAD_ALL_KEYS, start, nanos, (int) Math.min(Integer.MAX_VALUE, keys[0]));
+        };
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof AerospikeException.Timeout
+                    || (t instanceof AerospikeException ae && ae.getResultCode() == ResultCode.TIMEOUT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reports the state of {@code guard} along with the counters.
+     */
+    void guard(CallGuard guard) {
+        this.guard = guard;
+    }
+
+    // ---------------------------------------------------------
+    // Reading
+    // ---------------------------------------------------------
+
+    /**
+     * Counters of one operation.
+     *
+     * @param count        calls, failed ones included
+     * @param errors       failed calls
+     * @param timeouts     failed calls that timed out
+     * @param p50Nanos     median latency (upper bound of its power-of-two bucket)
+     * @param p99Nanos     99th percentile latency
+     * @param maxNanos     highest latency seen
+     * @param meanBatch    mean number of keys / entries per call
+     * @param maxBatch     largest batch seen
+     */
+    public record Stats(long count, long errors, long timeouts, long p50Nanos, long p99Nanos,
+                        long maxNanos, double meanBatch, long maxBatch) {
+    }
+
+    public Stats stats(Op op) {
+        Log2Histogram l = latency[op.ordinal()];
+        Log2Histogram b = batch[op.ordinal()];
+        long count = l.count();
+        return new Stats(count, errors[op.ordinal()].sum(), timeouts[op.ordinal()].sum(),
+                l.percentile(0.5), l.percentile(0.99), l.max(),
+                count == 0 ? 0 : (double) b.sum() / count, b.max());
+    }
+
+    /**
+     * State of the concurrency limit and circuit breaker of the store.
+     *
+     * @param limit        calls allowed in flight
+     * @param inFlight     calls in flight
+     * @param state        breaker state: CLOSED, OPEN or HALF_OPEN
+     * @param rejected     calls rejected, by the breaker or for want of a slot
+     * @param breakerOpens times the breaker opened
+     */
+    public record GuardStats(int limit, int inFlight, String state, long rejected, long breakerOpens) {
+    }
+
+    /**
+     * State of the store's guard, or null if "aerospike.guard.enabled" is false.
+     */
+    public GuardStats guardStats() {
+        CallGuard g = guard;
+        return g != null ? g.stats() : null;
+    }
+
+    /**
+     * Total time spent waiting on Aerospike.
+     */
+    public long networkNanos() {
+        return networkNanos.sum();
+    }
+
+    /**
+     * Total time of completed calls not spent waiting on Aerospike.
+     */
+    public long conversionNanos() {
+        return conversionNanos.sum();
+    }
+
+    // ---------------------------------------------------------
+    // Hazelcast metrics
+    // ---------------------------------------------------------
+
+    static boolean isEnabled(Properties properties) {
+        return Boolean.parseBoolean(properties.getProperty("aerospike.metrics.enabled", "true"));
+    }
+
+    /**
+     * Publishes the counters through the metrics registry of the member; does nothing on
+     * instances without one (clients, or no instance at all).
+     */
+    void register(HazelcastInstance instance) {
+        registry = memberMetricsRegistry(instance);
+        if (registry != null) {
+            registry.registerDynamicMetricsProvider(this);
+        }
+    }
+
+    /**
+     * The only use of Hazelcast internals in the stores: there is no public API to add
+     * dynamic metrics. Written against Hazelcast 5.6 (HazelcastInstanceProxy /
+     * HazelcastInstanceImpl.node.getNodeEngine()); recheck on upgrades.
+     */
+    private static MetricsRegistry memberMetricsRegistry(HazelcastInstance instance) {
+        HazelcastInstanceImpl impl = instance instanceof HazelcastInstanceProxy proxy
+                ? proxy.getOriginal()
+                : instance instanceof HazelcastInstanceImpl i ? i : null;
+        return impl != null ? impl.node.getNodeEngine().getMetricsRegistry() : null;
+    }
+
+    void deregister() {
+        if (registry != null) {
+            registry.deregisterDynamicMetricsProvider(this);
+            registry = null;
+        }
+    }
+
+    @Override
+    public void provideDynamicMetrics(MetricDescriptor descriptor, MetricsCollectionContext context) {
+        MetricDescriptor root = descriptor.withPrefix(PREFIX)
+                                          .withDiscriminator("name", mapName)
+                                          .withTag("store", store);
+        context.collect(root.copy(), "networkNanos", ProbeLevel.INFO, ProbeUnit.NS, networkNanos.sum());
+        context.collect(root.copy(), "conversionNanos", ProbeLevel.INFO, ProbeUnit.NS, conversionNanos.sum());
+
+        ValueCompression.Stats c = compression.stats();
+        context.collect(root.copy(), "compressedValues", ProbeLevel.INFO, ProbeUnit.COUNT, c.compressedValues());
+        context.collect(root.copy(), "compressionRatio", ProbeLevel.INFO, ProbeUnit.COUNT, c.ratio());
+        context.collect(root.copy(), "compressNanos", ProbeLevel.INFO, ProbeUnit.NS, c.compressNanos());
+        context.collect(root.copy(), "decompressNanos", ProbeLevel.INFO, ProbeUnit.NS, c.decompressNanos());
+
+        GuardStats g = guardStats();
+        if (g != null) {
+            context.collect(root.copy(), "limit", ProbeLevel.INFO, ProbeUnit.COUNT, g.limit());
+            context.collect(root.copy(), "inFlight", ProbeLevel.INFO, ProbeUnit.COUNT, g.inFlight());
+            context.collect(root.copy(), "breakerState", ProbeLevel.INFO, ProbeUnit.COUNT,
+                    CallGuard.State.valueOf(g.state()).ordinal());
+            context.collect(root.copy(), "rejected", ProbeLevel.INFO, ProbeUnit.COUNT, g.rejected());
+            context.collect(root.copy(), "breakerOpens", ProbeLevel.INFO, ProbeUnit.COUNT, g.breakerOpens());
+        }
+
+        for (Op op : Op.values()) {
+            Log2Histogram l = latency[op.ordinal()];
+            Log2Histogram b = batch[op.ordinal()];
+            long count = l.count();
+            if (count == 0) {
+                continue;
+            }
+            MetricDescriptor d = root.copy().withTag("operation", op.metricName);
+            context.collect(d.copy(), "count", ProbeLevel.INFO, ProbeUnit.COUNT, count);
+            context.collect(d.copy(), "errors", ProbeLevel.INFO, ProbeUnit.COUNT, errors[op.ordinal()].sum());
+            context.collect(d.copy(), "timeouts", ProbeLevel.INFO, ProbeUnit.COUNT, timeouts[op.ordinal()].sum());
+            context.collect(d.copy(), "latencyMeanNanos", ProbeLevel.INFO, ProbeUnit.NS, l.sum() / count);
+            context.collect(d.copy(), "latencyP50Nanos", ProbeLevel.INFO, ProbeUnit.NS, l.percentile(0.5));
+            context.collect(d.copy(), "latencyP99Nanos", ProbeLevel.INFO, ProbeUnit.NS, l.percentile(0.99));
+            context.collect(d.copy(), "latencyP999Nanos", ProbeLevel.INFO, ProbeUnit.NS, l.percentile(0.999));
+            context.collect(d.copy(), "latencyMaxNanos", ProbeLevel.INFO, ProbeUnit.NS, l.max());
+            context.collect(d.copy(), "batchP50", ProbeLevel.INFO, ProbeUnit.COUNT, b.percentile(0.5));
+            context.collect(d.copy(), "batchP99", ProbeLevel.INFO, ProbeUnit.COUNT, b.percentile(0.99));
+            context.collect(d.copy(), "batchMax", ProbeLevel.INFO, ProbeUnit.COUNT, b.max());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.hazelcast.core.HazelcastInstance;
+
+import java.util.Properties;
+
+/**
+ * Record MapStore for several IMaps co-located in one Aerospike set: the maps share the
+ * record key space and each map owns one bin of the record.
+ * <p/>
+ * - load() / loadAll() / loadAllKeys() read only this map's bin; the scan skips records
+ *   that do not have it.
+ * - store() updates only this map's bin with an operate write.
+ * - delete() clears this map's bin; Aerospike removes the record once its last bin is gone.
+ * <p/>
+ * All co-located maps must configure the same "aerospike.set" (it defaults to the map name).
+ * <p/>
+ * The maps share the TTL of the record, so entry expiration times are not written as TTL
+ * and loaded entries carry none.
+ * <p/>
+ * Properties:
+ *  - aerospike.binName = bin owned by this map (default: mapName)
+ *  - aerospike.keyType = string|int|long|bytes (default: string); the Hazelcast key type
+ * <p/>
+ * Subclasses that override afterInit() must call super.afterInit().
+ */
+public abstract class MultiBinRecordMapStore<K, V> extends AbstractAerospikeRecordMapStore<K, V> {
+
+    protected String binName;
+    protected UserKeyType keyType;
+
+    private String[] binNames;
+    private Operation[] clearOperations;
+
+    @Override
+    protected void afterInit(HazelcastInstance hazelcastInstance,
+                             Properties properties,
+                             String mapName) {
+        this.binName  = properties.getProperty("aerospike.binName", mapName);
+        this.keyType  = UserKeyType.fromProperties(properties);
+        this.binNames = new String[] { binName };
+        this.clearOperations = new Operation[] { Operation.put(Bin.asNull(binName)) };
+    }
+
+    @Override
+    protected final String[] binNames() {
+        return binNames;
+    }
+
+    @Override
+    protected final boolean supportsEntryExpiration() {
+        return false;
+    }
+
+    @Override
+    protected final Operation[] deleteOperations(K key) {
+        return clearOperations;
+    }
+
+    @Override
+    protected Key toAerospikeKey(K key) {
+        return keyType.toKey(namespace, setName, key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected K fromAerospikeKey(Key key) {
+        return (K) keyType.fromKey(key);
+    }
+
+    @Override
+    protected final Bin[] toBins(K key, V value) {
+        return new Bin[] { new Bin(binName, toBinValue(value)) };
+    }
+
+    @Override
+    protected final V fromRecord(Key aerospikeKey, K logicalKey, Record record) {
+        Object raw = record.getValue(binName);
+        return raw != null ? fromBinValue(logicalKey, raw) : null;
+    }
+
+    // ---------------------------------------------------------
+    // Mapping hooks – subclasses define how V ↔ bin value
+    // ---------------------------------------------------------
+
+    /**
+     * Convert Hazelcast value into the value of this map's bin.
+     */
+    protected abstract Value toBinValue(V value);
+
+    /**
+     * Convert the raw value of this map's bin back into Hazelcast value.
+     */
+    protected abstract V fromBinValue(K key, Object raw);
+}
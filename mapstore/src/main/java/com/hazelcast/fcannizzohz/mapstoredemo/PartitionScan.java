@@ -0,0 +1,153 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ScanCallback;
+import com.aerospike.client.cluster.Node;
+import com.aerospike.client.policy.ScanPolicy;
+import com.aerospike.client.query.PartitionFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Scans a set as contiguous {@link PartitionFilter} ranges, several at a time.
+ * <p/>
+ * Each slice keeps its own PartitionFilter, which the client updates with the progress
+ * of every partition in it. When a slice fails it is retried with the same filter, so
+ * the scan resumes after the last record returned instead of starting again; other
+ * slices are not affected.
+ * <p/>
+ * Properties:
+ *  - aerospike.scan.slices      = number of partition ranges (default: 4 x parallelism, max 4096)
+ *  - aerospike.scan.parallelism = slices scanned concurrently, on the store's {@link IoExecutor}
+ *                                 (default: available processors)
+ *  - aerospike.scan.maxRetries  = retries per slice (default: 3)
+ */
+final class PartitionScan {
+
+    private final int slices;
+    private final int parallelism;
+    private final int maxRetries;
+
+    PartitionScan(Properties properties) {
+        this.parallelism = Integer.parseInt(properties.getProperty("aerospike.scan.parallelism",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.slices = Integer.parseInt(properties.getProperty("aerospike.scan.slices",
+                String.valueOf(Math.min(Node.PARTITIONS, 4 * parallelism))));
+        this.maxRetries = Integer.parseInt(properties.getProperty("aerospike.scan.maxRetries", "3"));
+
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("aerospike.scan.parallelism must be > 0: " + parallelism);
+        }
+        if (slices <= 0 || slices > Node.PARTITIONS) {
+            throw new IllegalArgumentException("aerospike.scan.slices must be in [1, 4096]: " + slices);
+        }
+    }
+
+    int slices() {
+        return slices;
+    }
+
+    /**
+     * Splits partitions [begin, begin + partitions) into at most {@code count} contiguous
+     * ranges of (almost) equal size.
+     */
+    static List<PartitionFilter> ranges(int begin, int partitions, int count) {
+        count = Math.min(count, partitions);
+        List<PartitionFilter> filters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = partitions / count + (i < partitions % count ? 1 : 0);
+            filters.add(PartitionFilter.range(begin, size));
+            begin += size;
+        }
+        return filters;
+    }
+
+    /**
+     * Scans all partitions of the set, see {@link #run(IoExecutor, IAerospikeClient, ScanPolicy, String, String,
+     * int, int, IntFunction, String...)}.
+     */
+    void run(IoExecutor io, IAerospikeClient client, ScanPolicy policy, String namespace, String setName,
+             IntFunction<ScanCallback> callbacks, String... binNames) {
+        run(io, client, policy, namespace, setName, 0, Node.PARTITIONS, callbacks, binNames);
+    }
+
+    /**
+     * Scans partitions [begin, begin + partitions) as slices and returns when every one of them is done.
+     * <p/>
+     * {@code callbacks} is called once per slice index; the callback it returns gets that
+     * slice's records. Nodes are scanned one after the other within a slice, so a slice
+     * callback is never called concurrently with itself. Once a slice has failed, no other
+     * slice starts and the running ones are terminated at their next record.
+     *
+     * @throws AerospikeException the error of the first slice that ran out of retries
+     */
+    void run(IoExecutor io, IAerospikeClient client, ScanPolicy policy, String namespace, String setName,
+             int begin, int partitions, IntFunction<ScanCallback> callbacks, String... binNames) {
+        if (partitions <= 0) {
+            return;
+        }
+        ScanPolicy slicePolicy = new ScanPolicy(policy);
+        slicePolicy.concurrentNodes = false;
+
+        List<PartitionFilter> filters = ranges(begin, partitions, slices);
+        // the first failure; the slices it terminates fail after it
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        RuntimeException error = IoExecutor.firstError(io.runAll(filters.size(), parallelism, true, i -> {
+            ScanCallback callback = callbacks.apply(i);
+            try {
+                scanSlice(client, slicePolicy, filters.get(i), namespace, setName, (key, record) -> {
+                    if (failure.get() != null) {
+                        throw new AerospikeException.ScanTerminated();
+                    }
+                    callback.scanCallback(key, record);
+                }, binNames);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            }
+        }));
+        if (failure.get() != null) {
+            error = failure.get();
+        }
+        if (error instanceof AerospikeException ae) {
+            throw ae;
+        }
+        if (error != null) {
+            throw new AerospikeException("Partition scan of " + namespace + "." + setName + " failed", error);
+        }
+    }
+
+    private void scanSlice(IAerospikeClient client, ScanPolicy policy, PartitionFilter filter,
+                           String namespace, String setName, ScanCallback callback, String... binNames) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                client.scanPartitions(policy, filter, namespace, setName, callback, binNames);
+                return;
+            } catch (AerospikeException.ScanTerminated e) {
+                // aborted by the callback, not a failure of the slice
+                throw e;
+            } catch (AerospikeException e) {
+                if (attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                // same filter: resumes the partitions of this slice that did not complete
+            }
+        }
+    }
+
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
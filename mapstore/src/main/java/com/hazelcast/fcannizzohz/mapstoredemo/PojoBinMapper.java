@@ -0,0 +1,261 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps a value class to Aerospike bins and back, one bin per field.
+ * <p/>
+ * Fields of a class are selected with {@link AerospikeBin} (or all non-static, non-transient
+ * fields if none is annotated). Records map every component, since the canonical
+ * constructor needs them all; there the annotation only renames the bin. The mapper is
+ * built once per class: field accessors and the constructor are resolved to
+ * {@link MethodHandle}s up front, so converting a value does no reflective lookup. Plain
+ * classes need a no-arg constructor and non-final mapped fields; records are rebuilt
+ * through their canonical constructor.
+ * <p/>
+ * Supported field types: String, char, the integral and floating point primitives and their
+ * boxes (stored as Aerospike integer / double), boolean, byte[], enums (stored by name),
+ * List and Map (stored as CDTs).
+ */
+public final class PojoBinMapper<T> {
+
+    private static final ClassValue<PojoBinMapper<?>> MAPPERS = new ClassValue<>() {
+        @Override
+        protected PojoBinMapper<?> computeValue(Class<?> type) {
+            return new PojoBinMapper<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final boolean isRecord;
+    private final String[] binNames;
+    private final BinType[] binTypes;
+    private final Class<?>[] fieldTypes;
+    private final Object[] defaults;
+    // (Object) Object
+    private final MethodHandle[] getters;
+    // (Object, Object) void; null for records
+    private final MethodHandle[] setters;
+    // () Object for classes, (Object[]) Object for records
+    private final MethodHandle constructor;
+
+    @SuppressWarnings("unchecked")
+    public static <T> PojoBinMapper<T> of(Class<T> type) {
+        return (PojoBinMapper<T>) MAPPERS.get(type);
+    }
+
+    private PojoBinMapper(Class<T> type) {
+        this.type = type;
+        this.isRecord = type.isRecord();
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            List<Field> fields = mappedFields(type);
+            int n = fields.size();
+
+            this.binNames = new String[n];
+            this.binTypes = new BinType[n];
+            this.fieldTypes = new Class<?>[n];
+            this.defaults = new Object[n];
+            this.getters = new MethodHandle[n];
+            this.setters = isRecord ? null : new MethodHandle[n];
+
+            for (int i = 0; i < n; i++) {
+                Field f = fields.get(i);
+                AerospikeBin ann = f.getAnnotation(AerospikeBin.class);
+                binNames[i] = ann != null && !ann.value().isEmpty() ? ann.value() : f.getName();
+                fieldTypes[i] = f.getType();
+                binTypes[i] = BinType.of(f.getType(), type, f.getName());
+                defaults[i] = f.getType().isPrimitive() ? Array.get(Array.newInstance(f.getType(), 1), 0) : null;
+                getters[i] = lookup.unreflectGetter(f)
+                                   .asType(MethodType.methodType(Object.class, Object.class));
+                if (!isRecord) {
+                    if (Modifier.isFinal(f.getModifiers())) {
+                        throw new IllegalArgumentException("Mapped field " + type.getName() + "." + f.getName()
+                                + " is final; use a record or make it non-final");
+                    }
+                    setters[i] = lookup.unreflectSetter(f)
+                                       .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                }
+            }
+
+            if (isRecord) {
+                RecordComponent[] components = type.getRecordComponents();
+                Class<?>[] params = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    params[i] = components[i].getType();
+                }
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class, params))
+                                         .asSpreader(Object[].class, params.length)
+                                         .asType(MethodType.methodType(Object.class, Object[].class));
+            } else {
+                this.constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                                         .asType(MethodType.methodType(Object.class));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot map " + type.getName() + " to Aerospike bins", e);
+        }
+    }
+
+    /**
+     * For records, all components in canonical order, annotated or not; for classes, the
+     * annotated or all eligible fields.
+     */
+    private static List<Field> mappedFields(Class<?> type) throws NoSuchFieldException {
+        List<Field> fields = new ArrayList<>();
+        if (type.isRecord()) {
+            for (RecordComponent c : type.getRecordComponents()) {
+                fields.add(type.getDeclaredField(c.getName()));
+            }
+            return fields;
+        }
+
+        List<Field> all = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod) && !f.isSynthetic()) {
+                    all.add(f);
+                }
+            }
+        }
+        for (Field f : all) {
+            if (f.isAnnotationPresent(AerospikeBin.class)) {
+                fields.add(f);
+            }
+        }
+        return fields.isEmpty() ? all : fields;
+    }
+
+    public Bin[] toBins(T value) {
+        Bin[] bins = new Bin[binNames.length];
+        Object pojo = value;
+        try {
+            for (int i = 0; i < bins.length; i++) {
+                Object fieldValue = (Object) getters[i].invokeExact(pojo);
+                bins[i] = fieldValue == null
+                        ? Bin.asNull(binNames[i])
+                        : new Bin(binNames[i], binTypes[i].toValue(fieldValue));
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot convert " + type.getName() + " to bins", t);
+        }
+        return bins;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T fromRecord(Record record) {
+        Map<String, Object> recordBins = record.bins;
+        if (recordBins == null) {
+            return null;
+        }
+        try {
+            if (isRecord) {
+                Object[] args = new Object[binNames.length];
+                for (int i = 0; i < args.length; i++) {
+                    Object raw = recordBins.get(binNames[i]);
+                    args[i] = raw == null ? defaults[i] : binTypes[i].fromRaw(raw, fieldTypes[i]);
+                }
+                return (T) (Object) constructor.invokeExact(args);
+            }
+
+            Object pojo = (Object) constructor.invokeExact();
+            for (int i = 0; i < binNames.length; i++) {
+                Object raw = recordBins.get(binNames[i]);
+                if (raw != null) {
+                    setters[i].invokeExact(pojo, binTypes[i].fromRaw(raw, fieldTypes[i]));
+                }
+            }
+            return (T) pojo;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot build " + type.getName() + " from record", t);
+        }
+    }
+
+    /**
+     * Bin names in field order.
+     */
+    public String[] binNames() {
+        return binNames.clone();
+    }
+
+    private enum BinType {
+        STRING, CHAR, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, BOOLEAN, BYTES, ENUM, LIST, MAP;
+
+        static BinType of(Class<?> t, Class<?> owner, String field) {
+            if (t == String.class) {
+                return STRING;
+            } else if (t == char.class || t == Character.class) {
+                return CHAR;
+            } else if (t == byte.class || t == Byte.class) {
+                return BYTE;
+            } else if (t == short.class || t == Short.class) {
+                return SHORT;
+            } else if (t == int.class || t == Integer.class) {
+                return INT;
+            } else if (t == long.class || t == Long.class) {
+                return LONG;
+            } else if (t == float.class || t == Float.class) {
+                return FLOAT;
+            } else if (t == double.class || t == Double.class) {
+                return DOUBLE;
+            } else if (t == boolean.class || t == Boolean.class) {
+                return BOOLEAN;
+            } else if (t == byte[].class) {
+                return BYTES;
+            } else if (t.isEnum()) {
+                return ENUM;
+            } else if (List.class.isAssignableFrom(t)) {
+                return LIST;
+            } else if (Map.class.isAssignableFrom(t)) {
+                return MAP;
+            }
+            throw new IllegalArgumentException("Unsupported type " + t.getName()
+                    + " of field " + owner.getName() + "." + field);
+        }
+
+        Value toValue(Object v) {
+            return switch (this) {
+                case STRING -> Value.get((String) v);
+                case CHAR -> Value.get(String.valueOf((char) (Character) v));
+                case BYTE, SHORT, INT, LONG -> Value.get(((Number) v).longValue());
+                case FLOAT, DOUBLE -> Value.get(((Number) v).doubleValue());
+                case BOOLEAN -> Value.get((boolean) (Boolean) v);
+                case BYTES -> Value.get((byte[]) v);
+                case ENUM -> Value.get(((Enum<?>) v).name());
+                case LIST -> Value.get((List<?>) v);
+                case MAP -> Value.get((Map<?, ?>) v);
+            };
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object fromRaw(Object raw, Class<?> fieldType) {
+            return switch (this) {
+                case STRING -> raw.toString();
+                case CHAR -> raw.toString().charAt(0);
+                case BYTE -> ((Number) raw).byteValue();
+                case SHORT -> ((Number) raw).shortValue();
+                case INT -> ((Number) raw).intValue();
+                case LONG -> ((Number) raw).longValue();
+                case FLOAT -> ((Number) raw).floatValue();
+                case DOUBLE -> ((Number) raw).doubleValue();
+                // older servers store booleans as integers
+                case BOOLEAN -> raw instanceof Boolean b ? b : ((Number) raw).longValue() != 0;
+                case BYTES, LIST, MAP -> raw;
+                case ENUM -> Enum.valueOf((Class<? extends Enum>) fieldType, raw.toString());
+            };
+        }
+    }
+}
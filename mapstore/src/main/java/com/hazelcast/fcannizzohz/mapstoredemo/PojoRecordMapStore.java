@@ -0,0 +1,79 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.hazelcast.core.HazelcastInstance;
+
+import java.util.Properties;
+
+/**
+ * Record MapStore storing each field of the value in its own bin, as described by
+ * {@link PojoBinMapper} and {@link AerospikeBin}.
+ * <p/>
+ * The value class is either passed to the constructor or configured with the
+ * "aerospike.pojoClass" property, so the store can also be declared in XML/YAML.
+ * <p/>
+ * Properties:
+ *  - aerospike.pojoClass = fully qualified value class (required with the no-arg constructor)
+ *  - aerospike.keyType   = string|int|long|bytes (default: string); the Hazelcast key type
+ */
+public class PojoRecordMapStore<K, V> extends AbstractAerospikeRecordMapStore<K, V> {
+
+    protected UserKeyType keyType;
+
+    private Class<V> valueClass;
+    private PojoBinMapper<V> mapper;
+
+    public PojoRecordMapStore() {
+    }
+
+    public PojoRecordMapStore(Class<V> valueClass) {
+        this.valueClass = valueClass;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void afterInit(HazelcastInstance hazelcastInstance,
+                             Properties properties,
+                             String mapName) {
+        this.keyType = UserKeyType.fromProperties(properties);
+        if (valueClass == null) {
+            String className = properties.getProperty("aerospike.pojoClass");
+            if (className == null) {
+                throw new IllegalArgumentException("aerospike.pojoClass is required for map " + mapName);
+            }
+            ClassLoader classLoader = hazelcastInstance.getConfig().getClassLoader();
+            if (classLoader == null) {
+                classLoader = Thread.currentThread().getContextClassLoader();
+            }
+            try {
+                valueClass = (Class<V>) Class.forName(className, true, classLoader);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Cannot load aerospike.pojoClass " + className, e);
+            }
+        }
+        this.mapper = PojoBinMapper.of(valueClass);
+    }
+
+    @Override
+    protected Key toAerospikeKey(K key) {
+        return keyType.toKey(namespace, setName, key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected K fromAerospikeKey(Key key) {
+        return (K) keyType.fromKey(key);
+    }
+
+    @Override
+    protected Bin[] toBins(K key, V value) {
+        return mapper.toBins(value);
+    }
+
+    @Override
+    protected V fromRecord(Key aerospikeKey, K logicalKey, Record record) {
+        return mapper.fromRecord(record);
+    }
+}
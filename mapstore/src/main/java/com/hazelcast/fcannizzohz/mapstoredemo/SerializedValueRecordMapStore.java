@@ -0,0 +1,77 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.HeapData;
+import com.hazelcast.spi.impl.SerializationServiceSupport;
+
+import java.util.Properties;
+
+/**
+ * Record MapStore storing each value as a single bytes bin, serialized with the member's
+ * Hazelcast serialization service (Compact, IdentifiedDataSerializable, ...).
+ * <p/>
+ * Encoding goes through the serialization service's thread-local buffer pool, so the only
+ * allocation is the final byte[] handed to Aerospike. Decoding wraps the byte[] of the
+ * record in a {@link HeapData} without copying it.
+ * <p/>
+ * Properties:
+ *  - aerospike.valueBinName = bin holding the serialized value (default: value)
+ *  - aerospike.keyType      = string|int|long|bytes (default: string); the Hazelcast key type
+ *  - aerospike.includeSchema = true|false (default: true); embed Compact schemas in the stored
+ *    bytes so they can be read after a full cluster restart. Only switch off when schemas are
+ *    otherwise available to the cluster (e.g. persisted).
+ */
+public class SerializedValueRecordMapStore<K, V> extends AbstractAerospikeRecordMapStore<K, V> {
+
+    protected String valueBinName;
+    protected UserKeyType keyType;
+    protected boolean includeSchema;
+
+    private InternalSerializationService serializationService;
+
+    @Override
+    protected void afterInit(HazelcastInstance hazelcastInstance,
+                             Properties properties,
+                             String mapName) {
+        this.valueBinName  = properties.getProperty("aerospike.valueBinName", "value");
+        this.keyType       = UserKeyType.fromProperties(properties);
+        this.includeSchema = Boolean.parseBoolean(properties.getProperty("aerospike.includeSchema", "true"));
+
+        if (!(hazelcastInstance instanceof SerializationServiceSupport support)) {
+            throw new IllegalStateException("Cannot get the serialization service of " + hazelcastInstance);
+        }
+        this.serializationService = (InternalSerializationService) support.getSerializationService();
+    }
+
+    @Override
+    protected Key toAerospikeKey(K key) {
+        return keyType.toKey(namespace, setName, key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected K fromAerospikeKey(Key key) {
+        return (K) keyType.fromKey(key);
+    }
+
+    @Override
+    protected Bin[] toBins(K key, V value) {
+        byte[] bytes = includeSchema
+                ? serializationService.toDataWithSchema(value).toByteArray()
+                : serializationService.toBytes(value);
+        return new Bin[] { new Bin(valueBinName, bytes) };
+    }
+
+    @Override
+    protected V fromRecord(Key aerospikeKey, K logicalKey, Record record) {
+        Object raw = record.getValue(valueBinName);
+        if (!(raw instanceof byte[] bytes)) {
+            return null;
+        }
+        return serializationService.toObject(new HeapData(bytes));
+    }
+}
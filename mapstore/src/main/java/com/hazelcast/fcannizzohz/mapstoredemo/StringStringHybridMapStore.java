@@ -0,0 +1,14 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+public class StringStringHybridMapStore extends HybridMapStore<String, String> {
+
+    @Override
+    protected AbstractAerospikeCdtMapStore<String, String> createCdtStore() {
+        return new StringStringCdtMapStore();
+    }
+
+    @Override
+    protected AbstractAerospikeRecordMapStore<String, String> createRecordStore() {
+        return new StringStringRecordMapStore();
+    }
+}
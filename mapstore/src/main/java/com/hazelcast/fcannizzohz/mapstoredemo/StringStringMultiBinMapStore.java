@@ -0,0 +1,16 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Value;
+
+public class StringStringMultiBinMapStore extends MultiBinRecordMapStore<String, String> {
+
+    @Override
+    protected Value toBinValue(String value) {
+        return Value.get(value);
+    }
+
+    @Override
+    protected String fromBinValue(String key, Object raw) {
+        return raw.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Key;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Type of the Hazelcast key, used as the Aerospike user key by the ready-made record
+ * MapStores. Configured with "aerospike.keyType" = string|int|long|bytes (default: string).
+ */
+public enum UserKeyType {
+    STRING,
+    INT,
+    LONG,
+    BYTES;
+
+    public static UserKeyType fromProperties(Properties properties) {
+        String type = properties.getProperty("aerospike.keyType", "string");
+        try {
+            return valueOf(type.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported keyType: " + type, e);
+        }
+    }
+
+    public Key toKey(String namespace, String setName, Object key) {
+        return switch (this) {
+            case STRING -> new Key(namespace, setName, key.toString());
+            case INT    -> new Key(namespace, setName, ((Number) key).intValue());
+            case LONG   -> new Key(namespace, setName, ((Number) key).longValue());
+            case BYTES  -> new Key(namespace, setName, (byte[]) key);
+        };
+    }
+
+    /**
+     * Hazelcast key from the user key sent back by Aerospike, null if the record has none.
+     */
+    public Object fromKey(Key key) {
+        if (key == null || key.userKey == null) {
+            return null;
+        }
+        Object raw = key.userKey.getObject();
+        return switch (this) {
+            // integer user keys always come back as Long
+            case INT  -> ((Number) raw).intValue();
+            case LONG -> ((Number) raw).longValue();
+            default   -> raw;
+        };
+    }
+}
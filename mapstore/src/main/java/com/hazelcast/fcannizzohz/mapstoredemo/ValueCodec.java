@@ -0,0 +1,30 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+/**
+ * Compression codec used by {@link ValueCompression} for values above the size threshold.
+ * <p/>
+ * The codec id is written in the header of every compressed value so that records stay
+ * readable when the configured codec changes: keep ids stable and unique. Ids 0-15 are
+ * reserved for codecs shipped with the MapStore (1 = {@link DeflateCodec}).
+ * <p/>
+ * Implementations must be thread-safe and have a public no-arg constructor to be
+ * configured with "aerospike.compression.codec".
+ */
+public interface ValueCodec {
+
+    byte id();
+
+    /**
+     * Compresses {@code src} into {@code dst} starting at {@code dstOffset}.
+     *
+     * @return the compressed length, or -1 if the result would not fit in {@code maxLength}
+     *         bytes (the value is then stored uncompressed)
+     */
+    int compress(byte[] src, byte[] dst, int dstOffset, int maxLength);
+
+    /**
+     * Decompresses {@code length} bytes of {@code src} from {@code offset} into {@code dst},
+     * which is sized to the original length.
+     */
+    void decompress(byte[] src, int offset, int length, byte[] dst);
+}
@@ -0,0 +1,275 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.command.ParticleType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Codec layer between the value-mapping hooks of the MapStores and Aerospike.
+ * <p/>
+ * String and bytes values of at least "aerospike.compression.threshold" bytes are
+ * compressed with the configured {@link ValueCodec} and stored as a bytes particle with a
+ * small header:
+ * <pre>
+ *   magic (4) | codec id (1) | original type (1) | original length (4) | payload
+ * </pre>
+ * Values that do not shrink are stored unchanged. On read, bytes values carrying the header
+ * are decoded back to their original String / byte[]; everything else is returned as is, so
+ * records written before compression was enabled (or with it disabled) stay readable.
+ * Uncompressed bytes that happen to start with the magic are written with the header and
+ * codec id 0 so they are never mistaken for compressed values.
+ * <p/>
+ * Decoding of the built-in codecs is always on, so compression can be switched off without
+ * rewriting the data.
+ * <p/>
+ * Properties:
+ *  - aerospike.compression.codec     = none|deflate|class name of a {@link ValueCodec} (default: none)
+ *  - aerospike.compression.threshold = min value size in bytes to compress (default: 1024)
+ *  - aerospike.compression.level     = deflate level 1-9 (default: 1)
+ * <p/>
+ * This is independent of the "aerospike.policy.compress" client option, which only compresses
+ * the wire protocol: values compressed here are also smaller on the Aerospike device.
+ */
+public final class ValueCompression {
+
+    private static final byte[] MAGIC = {(byte) 0xA5, (byte) 0x70, (byte) 0xC0, (byte) 0xDE};
+    private static final int HEADER_LENGTH = MAGIC.length + 6;
+    private static final byte IDENTITY = 0;
+    private static final byte TYPE_BYTES = 0;
+    private static final byte TYPE_STRING = 1;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+
+    /**
+     * Null when compression is off; values are then only checked for the header.
+     */
+    private final ValueCodec codec;
+    private final int threshold;
+    private final ValueCodec deflate;
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    ValueCompression(Properties properties) {
+        this.threshold = Integer.parseInt(properties.getProperty("aerospike.compression.threshold", "1024"));
+        if (threshold < 0) {
+            throw new IllegalArgumentException("aerospike.compression.threshold must be >= 0: " + threshold);
+        }
+        int level = Integer.parseInt(properties.getProperty("aerospike.compression.level",
+                String.valueOf(Deflater.BEST_SPEED)));
+        String name = properties.getProperty("aerospike.compression.codec", "none");
+        this.codec = switch (name.toLowerCase(Locale.ROOT)) {
+            case "none" -> null;
+            case "deflate" -> new DeflateCodec(level);
+            default -> newCodec(name);
+        };
+        this.deflate = codec instanceof DeflateCodec ? codec : new DeflateCodec();
+    }
+
+    private static ValueCodec newCodec(String className) {
+        try {
+            Class<?> type = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+            return (ValueCodec) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot create aerospike.compression.codec " + className, e);
+        }
+    }
+
+    // ---------------------------------------------------------
+    // Write path
+    // ---------------------------------------------------------
+
+    /**
+     * Encodes the bins in place and returns them.
+     */
+    Bin[] encode(Bin[] bins) {
+        for (int i = 0; i < bins.length; i++) {
+            Value value = bins[i].value;
+            Value encoded = encode(value);
+            if (encoded != value) {
+                bins[i] = new Bin(bins[i].name, encoded);
+            }
+        }
+        return bins;
+    }
+
+    Value encode(Value value) {
+        if (value == null) {
+            return null;
+        }
+        byte type;
+        byte[] raw;
+        switch (value.getType()) {
+            case ParticleType.BLOB -> {
+                // byte segments are left alone, they are not produced by the stores
+                if (!(value.getObject() instanceof byte[] bytes)) {
+                    return value;
+                }
+                raw = bytes;
+                type = TYPE_BYTES;
+            }
+            case ParticleType.STRING -> {
+                if (codec == null || ((String) value.getObject()).length() < threshold / 3) {
+                    // below threshold even at 3 bytes per char: skip the UTF-8 encoding
+                    return value;
+                }
+                raw = ((String) value.getObject()).getBytes(StandardCharsets.UTF_8);
+                type = TYPE_STRING;
+            }
+            default -> {
+                return value;
+            }
+        }
+
+        if (codec != null && raw.length >= threshold) {
+            long start = now();
+            byte[] out = new byte[raw.length];
+            int length = raw.length > HEADER_LENGTH
+                    ? codec.compress(raw, out, HEADER_LENGTH, raw.length - HEADER_LENGTH)
+                    : -1;
+            compressNanos.add(now() - start);
+            if (length >= 0) {
+                compressed.increment();
+                bytesIn.add(raw.length);
+                bytesOut.add(HEADER_LENGTH + length);
+                writeHeader(out, codec.id(), type, raw.length);
+                return Value.get(Arrays.copyOf(out, HEADER_LENGTH + length));
+            }
+            skipped.increment();
+        }
+
+        if (type == TYPE_BYTES && hasMagic(raw)) {
+            byte[] out = new byte[HEADER_LENGTH + raw.length];
+            writeHeader(out, IDENTITY, TYPE_BYTES, raw.length);
+            System.arraycopy(raw, 0, out, HEADER_LENGTH, raw.length);
+            return Value.get(out);
+        }
+        return value;
+    }
+
+    private static void writeHeader(byte[] out, byte codecId, byte type, int originalLength) {
+        System.arraycopy(MAGIC, 0, out, 0, MAGIC.length);
+        out[4] = codecId;
+        out[5] = type;
+        out[6] = (byte) (originalLength >>> 24);
+        out[7] = (byte) (originalLength >>> 16);
+        out[8] = (byte) (originalLength >>> 8);
+        out[9] = (byte) originalLength;
+    }
+
+    // ---------------------------------------------------------
+    // Read path
+    // ---------------------------------------------------------
+
+    /**
+     * Decodes the bins of {@code record} in place and returns it.
+     */
+    Record decode(Record record) {
+        Map<String, Object> bins = record.bins;
+        if (bins != null) {
+            for (Map.Entry<String, Object> bin : bins.entrySet()) {
+                Object value = bin.getValue();
+                if (value instanceof byte[] bytes && hasMagic(bytes)) {
+                    bin.setValue(decode(bytes));
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Original String / byte[] of a value read from Aerospike, or {@code raw} itself if it
+     * was not written by this layer.
+     */
+    Object decode(Object raw) {
+        if (!(raw instanceof byte[] bytes) || !hasMagic(bytes)) {
+            return raw;
+        }
+        if (bytes.length < HEADER_LENGTH) {
+            return raw;
+        }
+        byte codecId = bytes[4];
+        byte type = bytes[5];
+        int originalLength = ((bytes[6] & 0xFF) << 24) | ((bytes[7] & 0xFF) << 16)
+                | ((bytes[8] & 0xFF) << 8) | (bytes[9] & 0xFF);
+
+        byte[] out = new byte[originalLength];
+        if (codecId == IDENTITY) {
+            System.arraycopy(bytes, HEADER_LENGTH, out, 0, originalLength);
+        } else {
+            long start = now();
+            codecFor(codecId).decompress(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, out);
+            decompressNanos.add(now() - start);
+            decompressed.increment();
+        }
+        return type == TYPE_STRING ? new String(out, StandardCharsets.UTF_8) : out;
+    }
+
+    private ValueCodec codecFor(byte id) {
+        if (codec != null && codec.id() == id) {
+            return codec;
+        }
+        if (id == DeflateCodec.ID) {
+            return deflate;
+        }
+        throw new IllegalStateException("Value was compressed with unknown codec id " + id
+                + "; configure it with aerospike.compression.codec");
+    }
+
+    private static boolean hasMagic(byte[] bytes) {
+        return bytes.length >= MAGIC.length
+                && bytes[0] == MAGIC[0] && bytes[1] == MAGIC[1]
+                && bytes[2] == MAGIC[2] && bytes[3] == MAGIC[3];
+    }
+
+    private static long now() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    // ---------------------------------------------------------
+    // Stats
+    // ---------------------------------------------------------
+
+    public Stats stats() {
+        return new Stats(compressed.sum(), skipped.sum(), decompressed.sum(),
+                bytesIn.sum(), bytesOut.sum(), compressNanos.sum(), decompressNanos.sum());
+    }
+
+    /**
+     * Counters since the MapStore was initialised. Times are thread CPU time where the JVM
+     * supports it, wall-clock time otherwise.
+     *
+     * @param compressedValues   values stored compressed
+     * @param skippedValues      values above the threshold that did not shrink
+     * @param decompressedValues values read back and decompressed
+     * @param bytesIn            original size of the compressed values
+     * @param bytesOut           stored size of the compressed values, header included
+     */
+    public record Stats(long compressedValues, long skippedValues, long decompressedValues,
+                        long bytesIn, long bytesOut, long compressNanos, long decompressNanos) {
+
+        /**
+         * Original / stored size of the compressed values; 1 if nothing was compressed.
+         */
+        public double ratio() {
+            return bytesOut == 0 ? 1.0 : (double) bytesIn / bytesOut;
+        }
+    }
+}
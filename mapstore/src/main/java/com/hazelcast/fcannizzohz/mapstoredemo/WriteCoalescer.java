@@ -0,0 +1,260 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.IAerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRecord;
+import com.aerospike.client.BatchWrite;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.BatchWritePolicy;
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merges the writes of co-located MapStores (see {@link MultiBinRecordMapStore}) that
+ * target the same Aerospike record.
+ * <p/>
+ * Stores of the same "aerospike.coalesce.group" hand their record writes to one shared
+ * coalescer instead of sending them. Every "aerospike.coalesce.windowMs" the pending
+ * operations are merged per {@link Key} (a later write of a bin replaces an earlier one,
+ * a record delete drops what came before it) and sent as one batch operate with a single
+ * write per record. Callers wait for the flush that carries their write, so
+ * write-behind sees the usual per-entry results.
+ * <p/>
+ * Meant for write-behind maps: a write-through store() waits up to one window longer.
+ * <p/>
+ * A flush never fails as a whole: whatever goes wrong with a chunk (an Error included)
+ * fails the writes of that chunk, a throwing waiter is logged and skipped, and the
+ * flusher keeps running, so no caller is left waiting.
+ * <p/>
+ * The group uses the client and batch policies of the first store that joins it, so its
+ * flushes go through that store's {@link CallGuard}; all stores of a group must use the same
+ * underlying client (the default with a shared client, see {@link AerospikeClientRegistry}).
+ * <p/>
+ * Properties:
+ *  - aerospike.coalesce.group    = group name; unset disables coalescing (default)
+ *  - aerospike.coalesce.windowMs = flush interval in milliseconds (default: 5)
+ */
+final class WriteCoalescer {
+
+    private static final ILogger LOGGER = Logger.getLogger(WriteCoalescer.class);
+
+    private static final Map<String, WriteCoalescer> GROUPS = new HashMap<>();
+
+    /**
+     * Merge key of a record delete in the operations of a record.
+     */
+    private static final String DELETE = "\0delete";
+
+    private final String group;
+    private final IAerospikeClient client;
+    private final IAerospikeClient shared;
+    private final BatchPolicy batchPolicy;
+    private final BatchWritePolicy recordPolicy;
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+
+    // guarded by this
+    private Map<Key, PendingRecord> pending = new HashMap<>();
+    private int refCount;
+
+    private WriteCoalescer(String group, IAerospikeClient client, IAerospikeClient shared, BatchPolicy batchPolicy,
+                           BatchWritePolicy recordPolicy, int batchSize, long windowMs) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException("aerospike.coalesce.windowMs must be > 0: " + windowMs);
+        }
+        this.group = group;
+        this.client = client;
+        this.shared = shared;
+        this.batchPolicy = batchPolicy;
+        this.recordPolicy = recordPolicy;
+        this.batchSize = batchSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                PartitionScan.daemonThreads("aerospike-coalesce-" + group));
+        flusher.scheduleWithFixedDelay(this::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    static String group(Properties properties) {
+        return properties.getProperty("aerospike.coalesce.group");
+    }
+
+    /**
+     * Joins the group, creating its coalescer if this is the first store. Every join must
+     * be matched by one {@link #leave()}.
+     *
+     * @param client the store's client, possibly wrapped by its {@link CallGuard}
+     * @param shared the client underneath, which all stores of the group must share
+     */
+    static WriteCoalescer join(String group, IAerospikeClient client, IAerospikeClient shared,
+                               BatchPolicy batchPolicy, BatchWritePolicy recordPolicy, int batchSize,
+                               Properties properties) {
+        synchronized (GROUPS) {
+            WriteCoalescer coalescer = GROUPS.get(group);
+            if (coalescer == null) {
+                long windowMs = Long.parseLong(properties.getProperty("aerospike.coalesce.windowMs", "5"));
+                coalescer = new WriteCoalescer(group, client, shared, batchPolicy, recordPolicy, batchSize,
+                        windowMs);
+                GROUPS.put(group, coalescer);
+            } else if (coalescer.shared != shared) {
+                throw new IllegalArgumentException("Maps of aerospike.coalesce.group " + group
+                        + " must share the Aerospike client: use the same hosts and client settings");
+            }
+            synchronized (coalescer) {
+                coalescer.refCount++;
+            }
+            return coalescer;
+        }
+    }
+
+    /**
+     * Leaves the group; the last store to leave flushes what is pending and stops the flusher.
+     */
+    void leave() {
+        synchronized (GROUPS) {
+            synchronized (this) {
+                if (--refCount > 0) {
+                    return;
+                }
+            }
+            GROUPS.remove(group, this);
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Queues the operations of one record write for the next flush; {@code onDone} gets null
+     * on success or the error, on the flusher thread.
+     */
+    void submit(AsyncWritePipeline.Completion completion, Key key, Operation[] ops,
+                Consumer<AerospikeException> onDone) {
+        completion.begin();
+        synchronized (this) {
+            pending.computeIfAbsent(key, k -> new PendingRecord()).add(ops, result -> {
+                try {
+                    onDone.accept(result);
+                } finally {
+                    completion.arrive();
+                }
+            });
+        }
+    }
+
+    private void flush() {
+        Map<Key, PendingRecord> toFlush;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            toFlush = pending;
+            pending = new HashMap<>();
+        }
+
+        try {
+            List<BatchRecord> chunk = new ArrayList<>(Math.min(toFlush.size(), batchSize));
+            List<PendingRecord> chunkRecords = new ArrayList<>(Math.min(toFlush.size(), batchSize));
+            for (Map.Entry<Key, PendingRecord> e : toFlush.entrySet()) {
+                chunk.add(new BatchWrite(recordPolicy, e.getKey(), e.getValue().operations()));
+                chunkRecords.add(e.getValue());
+                if (chunk.size() == batchSize) {
+                    operate(chunk, chunkRecords);
+                    chunk = new ArrayList<>(batchSize);
+                    chunkRecords = new ArrayList<>(batchSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                operate(chunk, chunkRecords);
+            }
+        } catch (Throwable t) {
+            // runs on the scheduled flusher: an escaping throwable would cancel it for good
+            LOGGER.warning("Flush of aerospike.coalesce.group " + group + " failed", t);
+            AerospikeException error = new AerospikeException("Coalesced write of group " + group + " failed", t);
+            for (PendingRecord record : toFlush.values()) {
+                if (!record.completed) {
+                    record.complete(error);
+                }
+            }
+        }
+    }
+
+    private void operate(List<BatchRecord> chunk, List<PendingRecord> chunkRecords) {
+        AerospikeException error = null;
+        try {
+            client.operate(batchPolicy, chunk);
+        } catch (AerospikeException e) {
+            error = e;
+        } catch (Throwable t) {
+            error = new AerospikeException(t);
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            BatchRecord br = chunk.get(i);
+            // KEY_NOT_FOUND only comes from deleting a record that was already gone
+            AerospikeException result = br.resultCode == ResultCode.OK
+                    || br.resultCode == ResultCode.KEY_NOT_FOUND_ERROR
+                    ? null
+                    : error != null ? error : new AerospikeException(br.resultCode, br.inDoubt);
+            chunkRecords.get(i).complete(result);
+        }
+    }
+
+    /**
+     * Operations queued for one record, merged by bin, and the writers waiting on them.
+     */
+    private static final class PendingRecord {
+        private final Map<String, Operation> ops = new LinkedHashMap<>();
+        private final List<Consumer<AerospikeException>> waiters = new ArrayList<>(2);
+        private int unnamed;
+        // flusher thread only
+        private boolean completed;
+
+        void add(Operation[] newOps, Consumer<AerospikeException> waiter) {
+            for (Operation op : newOps) {
+                if (op.type == Operation.Type.DELETE) {
+                    ops.clear();
+                    ops.put(DELETE, op);
+                } else if (op.type == Operation.Type.WRITE && op.binName != null) {
+                    // a later put of a bin replaces the earlier one
+                    ops.remove(op.binName);
+                    ops.put(op.binName, op);
+                } else {
+                    ops.put("\0op" + unnamed++, op);
+                }
+            }
+            waiters.add(waiter);
+        }
+
+        Operation[] operations() {
+            return ops.values().toArray(new Operation[0]);
+        }
+
+        void complete(AerospikeException result) {
+            completed = true;
+            for (Consumer<AerospikeException> waiter : waiters) {
+                try {
+                    waiter.accept(result);
+                } catch (Throwable t) {
+                    // the other writers of the record still need their result
+                    LOGGER.warning("Coalesced write callback failed", t);
+                }
+            }
+        }
+    }
+}
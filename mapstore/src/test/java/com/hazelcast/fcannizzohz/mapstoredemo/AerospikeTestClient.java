@@ -86,6 +86,16 @@ public class AerospikeTestClient {
         return record.getValue(mapBinName);
     }
 
+    public void putCdt(String k, String v) {
+        Key key = new Key(namespace, setName, recordKeyString);
+        MapPolicy mapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
+        aerospikeClient.operate(
+                new WritePolicy(),
+                key,
+                MapOperation.put(mapPolicy, mapBinName, Value.get(k), Value.get(v))
+        );
+    }
+
     public Object getRecord(String k) {
         Policy readPolicy = new Policy();
         readPolicy.sendKey = true;
@@ -94,6 +104,24 @@ public class AerospikeTestClient {
         return record != null ? record.getValue(valueBin) : null;
     }
 
+    public Map<String, Object> getBins(String k) {
+        Key key = new Key(namespace, setName, k);
+        Record record = aerospikeClient.get(new Policy(), key);
+        return record != null ? record.bins : null;
+    }
+
+    public int getGeneration(String k) {
+        Key key = new Key(namespace, setName, k);
+        Record record = aerospikeClient.getHeader(new Policy(), key);
+        return record != null ? record.generation : 0;
+    }
+
+    public int getTimeToLive(String k) {
+        Key key = new Key(namespace, setName, k);
+        Record record = aerospikeClient.getHeader(new Policy(), key);
+        return record != null ? record.getTimeToLive() : 0;
+    }
+
     public void prepopulateRecordAerospike() {
         WritePolicy wp = new WritePolicy();
 
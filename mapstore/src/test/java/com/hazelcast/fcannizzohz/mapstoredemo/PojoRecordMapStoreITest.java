@@ -0,0 +1,153 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Record;
+import com.hazelcast.client.test.TestHazelcastFactory;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.jet.config.JetConfig;
+import com.hazelcast.map.IMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_HOST;
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_PORT;
+import static com.hazelcast.test.HazelcastTestSupport.randomName;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PojoRecordMapStoreITest {
+
+    public enum Kind { SMALL, LARGE }
+
+    public record Sample(@AerospikeBin("value") String name, int count, Kind kind, List<String> tags) {
+    }
+
+    public static class MutableSample {
+        String name;
+        long total;
+        transient String ignored;
+
+        public MutableSample() {
+        }
+
+        MutableSample(String name, long total) {
+            this.name = name;
+            this.total = total;
+        }
+    }
+
+    private static TestHazelcastFactory hazelcastFactory;
+    private static AerospikeTestClient aerospikeClient;
+
+    private HazelcastInstance hazelcast;
+
+    @BeforeClass
+    public static void setUpClass() {
+        aerospikeClient = new AerospikeTestClient();
+        hazelcastFactory = new TestHazelcastFactory();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.terminateAll();
+        }
+        if (aerospikeClient != null) {
+            aerospikeClient.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        hazelcast = hazelcastFactory.newHazelcastInstance(newHzConfig());
+    }
+
+    @After
+    public void tearDown() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.shutdownAll();
+        }
+    }
+
+    private Config newHzConfig() {
+        Config config = new Config()
+                .setJetConfig(new JetConfig().setEnabled(true))
+                .setClusterName(randomName())
+                .setLicenseKey(System.getenv("HZ_LICENSEKEY"));
+
+        MapStoreConfig mapStoreConfig = new MapStoreConfig()
+                .setEnabled(true)
+                .setImplementation(new PojoRecordMapStore<>(Sample.class))
+                .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY);
+
+        Properties props = new Properties();
+        props.setProperty("aerospike.host", AS_HOST);
+        props.setProperty("aerospike.port", String.valueOf(AS_PORT));
+        props.setProperty("aerospike.namespace", aerospikeClient.namespace);
+        props.setProperty("aerospike.set", aerospikeClient.setName);
+        mapStoreConfig.setProperties(props);
+
+        config.getMapConfig("pojo")
+              .setMapStoreConfig(mapStoreConfig);
+
+        return config;
+    }
+
+    @Test
+    public void testStoreWritesOneBinPerField() {
+        IMap<String, Sample> map = hazelcast.getMap("pojo");
+
+        map.put("pojo-1", new Sample("one", 1, Kind.SMALL, List.of("a")));
+
+        // the name component is mapped to the "value" bin
+        assertThat(aerospikeClient.getRecord("pojo-1")).isEqualTo("one");
+    }
+
+    @Test
+    public void testLoadRebuildsRecord() {
+        IMap<String, Sample> map = hazelcast.getMap("pojo");
+        Sample sample = new Sample("two", 2, Kind.LARGE, List.of("a", "b"));
+
+        map.put("pojo-2", sample);
+        map.evictAll();
+
+        assertThat(map.get("pojo-2")).isEqualTo(sample);
+    }
+
+    @Test
+    public void testNullFieldsComeBackAsDefaults() {
+        IMap<String, Sample> map = hazelcast.getMap("pojo");
+
+        map.put("pojo-3", new Sample("three", 0, null, null));
+        map.evictAll();
+
+        assertThat(map.get("pojo-3")).isEqualTo(new Sample("three", 0, null, null));
+    }
+
+    @Test
+    public void testMapperRoundTripsPlainClass() {
+        PojoBinMapper<MutableSample> mapper = PojoBinMapper.of(MutableSample.class);
+
+        assertThat(mapper.binNames()).containsExactly("name", "total");
+
+        Bin[] bins = mapper.toBins(new MutableSample("four", 4L));
+        Map<String, Object> raw = new HashMap<>();
+        for (Bin bin : bins) {
+            raw.put(bin.name, bin.value.getObject());
+        }
+        MutableSample back = mapper.fromRecord(new Record(raw, 1, 0));
+
+        assertThat(back.name).isEqualTo("four");
+        assertThat(back.total).isEqualTo(4L);
+        assertThat(back.ignored).isNull();
+    }
+}
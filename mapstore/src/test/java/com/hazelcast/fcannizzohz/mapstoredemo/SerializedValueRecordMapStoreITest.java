@@ -0,0 +1,104 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.hazelcast.client.test.TestHazelcastFactory;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.jet.config.JetConfig;
+import com.hazelcast.map.IMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_HOST;
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_PORT;
+import static com.hazelcast.test.HazelcastTestSupport.randomName;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SerializedValueRecordMapStoreITest {
+
+    public record Sample(String name, int count) {
+    }
+
+    private static TestHazelcastFactory hazelcastFactory;
+    private static AerospikeTestClient aerospikeClient;
+
+    private HazelcastInstance hazelcast;
+
+    @BeforeClass
+    public static void setUpClass() {
+        aerospikeClient = new AerospikeTestClient();
+        hazelcastFactory = new TestHazelcastFactory();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.terminateAll();
+        }
+        if (aerospikeClient != null) {
+            aerospikeClient.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        hazelcast = hazelcastFactory.newHazelcastInstance(newHzConfig());
+    }
+
+    @After
+    public void tearDown() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.shutdownAll();
+        }
+    }
+
+    private Config newHzConfig() {
+        Config config = new Config()
+                .setJetConfig(new JetConfig().setEnabled(true))
+                .setClusterName(randomName())
+                .setLicenseKey(System.getenv("HZ_LICENSEKEY"));
+
+        MapStoreConfig mapStoreConfig = new MapStoreConfig()
+                .setEnabled(true)
+                .setImplementation(new SerializedValueRecordMapStore<String, Sample>())
+                .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY);
+
+        Properties props = new Properties();
+        props.setProperty("aerospike.host", AS_HOST);
+        props.setProperty("aerospike.port", String.valueOf(AS_PORT));
+        props.setProperty("aerospike.namespace", aerospikeClient.namespace);
+        props.setProperty("aerospike.set", aerospikeClient.setName);
+        props.setProperty("aerospike.valueBinName", aerospikeClient.valueBin);
+        mapStoreConfig.setProperties(props);
+
+        config.getMapConfig("serialized")
+              .setMapStoreConfig(mapStoreConfig);
+
+        return config;
+    }
+
+    @Test
+    public void testStoreWritesSingleBytesBin() {
+        IMap<String, Sample> map = hazelcast.getMap("serialized");
+
+        map.put("ser-1", new Sample("one", 1));
+
+        Object raw = aerospikeClient.getRecord("ser-1");
+        assertThat(raw).isInstanceOf(byte[].class);
+    }
+
+    @Test
+    public void testLoadReadsBackSerializedValue() {
+        IMap<String, Sample> map = hazelcast.getMap("serialized");
+
+        map.put("ser-2", new Sample("two", 2));
+        map.evictAll();
+
+        assertThat(map.get("ser-2")).isEqualTo(new Sample("two", 2));
+    }
+}
@@ -12,9 +12,13 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_HOST;
 import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_PORT;
@@ -74,6 +78,56 @@ public class StringStringCdtMapStoreITest {
                 .setImplementation(new StringStringCdtMapStore())
                 .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY);
 
+        Properties props = storeProperties();
+        mapStoreConfig.setProperties(props);
+
+        config.getMapConfig("samples")
+              .setMapStoreConfig(mapStoreConfig);
+
+        Properties pagedProps = new Properties();
+        pagedProps.putAll(props);
+        pagedProps.setProperty("aerospike.cdt.keyPageSize", "2");
+
+        config.getMapConfig("paged")
+              .setMapStoreConfig(new MapStoreConfig()
+                      .setEnabled(true)
+                      .setImplementation(new StringStringCdtMapStore())
+                      .setInitialLoadMode(MapStoreConfig.InitialLoadMode.EAGER)
+                      .setProperties(pagedProps));
+
+        Properties snapshotProps = new Properties();
+        snapshotProps.putAll(props);
+        snapshotProps.setProperty("aerospike.cdt.snapshot.enabled", "true");
+
+        config.getMapConfig("snapshot")
+              .setMapStoreConfig(new MapStoreConfig()
+                      .setEnabled(true)
+                      .setImplementation(new StringStringCdtMapStore())
+                      .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY)
+                      .setProperties(snapshotProps));
+
+        config.getMapConfig("sharded")
+              .setMapStoreConfig(new MapStoreConfig()
+                      .setEnabled(true)
+                      .setImplementation(new StringStringCdtMapStore())
+                      .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY)
+                      .setProperties(shardedProperties(256)));
+
+        Properties combinedProps = new Properties();
+        combinedProps.putAll(props);
+        combinedProps.setProperty("aerospike.recordKey", "combined-record");
+
+        config.getMapConfig("combined")
+              .setMapStoreConfig(new MapStoreConfig()
+                      .setEnabled(true)
+                      .setImplementation(new StringStringCdtMapStore())
+                      .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY)
+                      .setProperties(combinedProps));
+
+        return config;
+    }
+
+    private static Properties storeProperties() {
         Properties props = new Properties();
         props.setProperty("aerospike.host", AS_HOST);
         props.setProperty("aerospike.port", String.valueOf(AS_PORT));
@@ -82,12 +136,20 @@ public class StringStringCdtMapStoreITest {
         props.setProperty("aerospike.mapBinName",aerospikeClient.mapBinName);
         props.setProperty("aerospike.recordKeyType", "string");
         props.setProperty("aerospike.recordKey", aerospikeClient.recordKeyString);
-        mapStoreConfig.setProperties(props);
-
-        config.getMapConfig("samples")
-              .setMapStoreConfig(mapStoreConfig);
+        return props;
+    }
 
-        return config;
+    /**
+     * The "sharded" map: 8 buckets, at most {@code maxRequestBytes} per operate.
+     */
+    private static Properties shardedProperties(int maxRequestBytes) {
+        Properties props = storeProperties();
+        props.setProperty("aerospike.recordKey", "sharded-record");
+        props.setProperty("aerospike.cdt.buckets", "8");
+        props.setProperty("aerospike.cdt.maxRequestBytes", String.valueOf(maxRequestBytes));
+        // bucket operates on virtual threads
+        props.setProperty("aerospike.execution.virtualThreads", "true");
+        return props;
     }
 
     @Test
@@ -115,4 +177,96 @@ public class StringStringCdtMapStoreITest {
         assertThat(raw).isNotNull();
         assertThat(raw.toString()).isEqualTo("v6");
     }
+
+    @Test
+    public void testShardedMapSpreadsEntriesOverBucketsInChunks() throws Exception {
+        IMap<String, String> map = hazelcast.getMap("sharded");
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            entries.put("s" + i, "v" + i);
+        }
+
+        map.putAll(entries);
+
+        int usedBuckets = 0;
+        for (int i = 0; i < 8; i++) {
+            Map<String, Object> bins = aerospikeClient.getBins("sharded-record#" + i);
+            if (bins != null && bins.get(aerospikeClient.mapBinName) != null) {
+                usedBuckets++;
+            }
+        }
+        assertThat(usedBuckets).isGreaterThan(1);
+
+        map.evictAll();
+        assertThat(map.getAll(entries.keySet())).isEqualTo(entries);
+
+        // IMap.removeAll() deletes key by key: call deleteAll() itself, a couple of keys per operate
+        StringStringCdtMapStore store = new StringStringCdtMapStore();
+        // same bucket records as "sharded"
+        store.init(hazelcast, shardedProperties(64), "sharded-chunks");
+        try {
+            store.deleteAll(new ArrayList<>(entries.keySet()));
+
+            assertThat(store.loadAll(entries.keySet())).isEmpty();
+        } finally {
+            store.close();
+        }
+        for (int i = 0; i < 8; i++) {
+            Map<String, Object> bins = aerospikeClient.getBins("sharded-record#" + i);
+            Object cdt = bins != null ? bins.get(aerospikeClient.mapBinName) : null;
+            if (cdt != null) {
+                assertThat(((Map<?, ?>) cdt).keySet()).noneMatch(entries::containsKey);
+            }
+        }
+    }
+
+    @Test
+    public void testLoadAllKeysPagesThroughTheMap() {
+        // same record as "samples", read two keys at a time
+        IMap<String, String> map = hazelcast.getMap("paged");
+
+        assertThat(map.keySet()).contains("k1", "k2", "k3", "k4", "k5");
+        assertThat(map.get("k3")).isEqualTo("v3");
+    }
+
+    @Test
+    public void testSnapshotSeesOwnAndExternalWrites() {
+        // same record as "samples", served from the local snapshot
+        IMap<String, String> map = hazelcast.getMap("snapshot");
+        assertThat(map.get("k1")).isEqualTo("v1");
+
+        // own write: applied to the snapshot as a delta
+        map.put("k7", "v7");
+        map.evictAll();
+        assertThat(map.get("k7")).isEqualTo("v7");
+
+        // external write: new generation, the snapshot is read again
+        aerospikeClient.putCdt("k2", "changed");
+        map.evictAll();
+        try {
+            assertThat(map.get("k2")).isEqualTo("changed");
+        } finally {
+            aerospikeClient.putCdt("k2", "v2");
+        }
+    }
+
+    @Test
+    public void testConcurrentWritesToOneRecordAreAllStored() {
+        IMap<String, String> map = hazelcast.getMap("combined");
+
+        // write-through puts from all partition threads at once, on a single record
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(map.putAsync("c" + i, "v" + i).toCompletableFuture());
+        }
+        for (int i = 0; i < 200; i += 2) {
+            futures.add(map.removeAsync("c" + i).toCompletableFuture());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        Map<?, ?> stored = (Map<?, ?>) aerospikeClient.getBins("combined-record").get(aerospikeClient.mapBinName);
+        assertThat(stored).hasSize(100);
+        assertThat(stored.get("c1")).isEqualTo("v1");
+        assertThat(stored.get("c2")).isNull();
+    }
 }
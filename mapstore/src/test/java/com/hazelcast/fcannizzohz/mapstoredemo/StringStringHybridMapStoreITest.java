@@ -0,0 +1,181 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.client.test.TestHazelcastFactory;
+import com.hazelcast.map.IMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_HOST;
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_PORT;
+import static com.hazelcast.test.HazelcastTestSupport.assertTrueEventually;
+import static com.hazelcast.test.HazelcastTestSupport.randomName;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringStringHybridMapStoreITest {
+
+    private static TestHazelcastFactory hazelcastFactory;
+    private static AerospikeTestClient aerospikeClient;
+
+    private HazelcastInstance hazelcast;
+    private StringStringHybridMapStore store;
+    private String recordKey;
+
+    @BeforeClass
+    public static void setUpClass() {
+        aerospikeClient = new AerospikeTestClient();
+        hazelcastFactory = new TestHazelcastFactory();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.terminateAll();
+        }
+        if (aerospikeClient != null) {
+            aerospikeClient.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        // fresh CDT record for every run: the layout only moves forward
+        recordKey = "hybrid-" + randomName();
+        store = new StringStringHybridMapStore();
+        hazelcast = hazelcastFactory.newHazelcastInstance(newHzConfig());
+    }
+
+    @After
+    public void tearDown() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.shutdownAll();
+        }
+    }
+
+    private Config newHzConfig() {
+        Config config = new Config()
+                .setClusterName(randomName())
+                .setLicenseKey(System.getenv("HZ_LICENSEKEY"));
+
+        Properties props = new Properties();
+        props.setProperty("aerospike.host", AS_HOST);
+        props.setProperty("aerospike.port", String.valueOf(AS_PORT));
+        props.setProperty("aerospike.namespace", aerospikeClient.namespace);
+        props.setProperty("aerospike.set", aerospikeClient.setName);
+        props.setProperty("aerospike.mapBinName", aerospikeClient.mapBinName);
+        props.setProperty("aerospike.recordKey", recordKey);
+        props.setProperty("aerospike.hybrid.maxEntries", "10");
+        props.setProperty("aerospike.hybrid.checkIntervalMs", "100");
+        props.setProperty("aerospike.hybrid.migrationPageSize", "3");
+
+        config.getMapConfig("hybrid")
+              .setMapStoreConfig(new MapStoreConfig()
+                      .setEnabled(true)
+                      .setImplementation(store)
+                      .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY)
+                      .setProperties(props));
+        return config;
+    }
+
+    @Test
+    public void testMigratesToRecordPerEntryPastThreshold() {
+        IMap<String, String> map = hazelcast.getMap("hybrid");
+        String prefix = recordKey + "-";
+
+        map.put(prefix + "first", "v");
+        assertThat(store.layout()).isEqualTo(HybridMapStore.Layout.CDT);
+
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            entries.put(prefix + i, "v" + i);
+        }
+        map.putAll(entries);
+
+        // writes and deletes keep working while the entries move
+        map.put(prefix + "during", "d");
+        map.delete(prefix + "first");
+
+        assertTrueEventually(() -> assertThat(store.layout()).isEqualTo(HybridMapStore.Layout.RECORD));
+
+        map.evictAll();
+        assertThat(map.getAll(entries.keySet())).isEqualTo(entries);
+        assertThat(map.get(prefix + "during")).isEqualTo("d");
+        assertThat(map.get(prefix + "first")).isNull();
+
+        Map<String, Object> bucket = aerospikeClient.getBins(recordKey);
+        assertThat((Map<?, ?>) bucket.get(aerospikeClient.mapBinName)).isNullOrEmpty();
+    }
+
+    @Test
+    public void testReadsWhilePagesMoveNeverMissEntries() throws Exception {
+        IMap<String, String> map = hazelcast.getMap("hybrid");
+        String prefix = recordKey + "-";
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            entries.put(prefix + i, "v" + i);
+        }
+        map.putAll(entries);
+        List<String> keys = new ArrayList<>(entries.keySet());
+
+        // read straight from the store: a miss would be cached by Hazelcast as a delete
+        Map<String, String> misses = new ConcurrentHashMap<>();
+        AtomicInteger readsWhileMigrating = new AtomicInteger();
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                int reader = r;
+                running.add(readers.submit(() -> {
+                    int i = reader;
+                    while (store.layout() != HybridMapStore.Layout.RECORD) {
+                        boolean migrating = store.layout() == HybridMapStore.Layout.MIGRATING;
+                        if (reader % 2 == 0) {
+                            String key = keys.get(i++ % keys.size());
+                            if (store.load(key) == null) {
+                                misses.put(key, "load");
+                            }
+                        } else {
+                            int from = i++ % (keys.size() - 5);
+                            List<String> chunk = keys.subList(from, from + 5);
+                            Map<String, String> loaded = store.loadAll(chunk);
+                            for (String key : chunk) {
+                                if (!loaded.containsKey(key)) {
+                                    misses.put(key, "loadAll");
+                                }
+                            }
+                        }
+                        if (migrating) {
+                            readsWhileMigrating.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : running) {
+                f.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+
+        assertThat(readsWhileMigrating.get()).isPositive();
+        assertThat(misses).isEmpty();
+    }
+}
@@ -0,0 +1,197 @@
+package com.hazelcast.fcannizzohz.mapstoredemo;
+
+import com.hazelcast.client.test.TestHazelcastFactory;
+import com.hazelcast.config.Config;
+import com.hazelcast.config.MapStoreConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.jet.config.JetConfig;
+import com.hazelcast.map.EntryLoader.MetadataAwareValue;
+import com.hazelcast.map.IMap;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_HOST;
+import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_PORT;
+import static com.hazelcast.test.HazelcastTestSupport.randomName;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringStringMultiBinMapStoreITest {
+
+    private static TestHazelcastFactory hazelcastFactory;
+    private static AerospikeTestClient aerospikeClient;
+
+    private HazelcastInstance hazelcast;
+
+    @BeforeClass
+    public static void setUpClass() {
+        aerospikeClient = new AerospikeTestClient();
+        hazelcastFactory = new TestHazelcastFactory();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.terminateAll();
+        }
+        if (aerospikeClient != null) {
+            aerospikeClient.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        hazelcast = hazelcastFactory.newHazelcastInstance(newHzConfig());
+    }
+
+    @After
+    public void tearDown() {
+        if (hazelcastFactory != null) {
+            hazelcastFactory.shutdownAll();
+        }
+    }
+
+    private Config newHzConfig() {
+        Config config = new Config()
+                .setJetConfig(new JetConfig().setEnabled(true))
+                .setClusterName(randomName())
+                .setLicenseKey(System.getenv("HZ_LICENSEKEY"));
+
+        for (String mapName : new String[] {"profile", "prefs", "coalesced-profile", "coalesced-prefs"}) {
+            Properties props = new Properties();
+            props.setProperty("aerospike.host", AS_HOST);
+            props.setProperty("aerospike.port", String.valueOf(AS_PORT));
+            props.setProperty("aerospike.namespace", aerospikeClient.namespace);
+            props.setProperty("aerospike.set", aerospikeClient.setName);
+            if (mapName.startsWith("coalesced-")) {
+                props.setProperty("aerospike.binName", mapName.substring("coalesced-".length()));
+                props.setProperty("aerospike.coalesce.group", "users");
+                props.setProperty("aerospike.coalesce.windowMs", "500");
+                props.setProperty("aerospike.guard.enabled", "true");
+            }
+
+            config.getMapConfig(mapName)
+                  .setMapStoreConfig(new MapStoreConfig()
+                          .setEnabled(true)
+                          .setImplementation(new StringStringMultiBinMapStore())
+                          .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY)
+                          .setProperties(props));
+        }
+
+        return config;
+    }
+
+    @Test
+    public void testMapsShareTheRecord() {
+        IMap<String, String> profile = hazelcast.getMap("profile");
+        IMap<String, String> prefs = hazelcast.getMap("prefs");
+
+        profile.put("user-1", "alice");
+        prefs.put("user-1", "dark-mode");
+
+        assertThat(aerospikeClient.getBins("user-1"))
+                .containsEntry("profile", "alice")
+                .containsEntry("prefs", "dark-mode");
+    }
+
+    @Test
+    public void testLoadReadsOnlyOwnBin() {
+        IMap<String, String> profile = hazelcast.getMap("profile");
+        IMap<String, String> prefs = hazelcast.getMap("prefs");
+
+        profile.put("user-2", "bob");
+        profile.evictAll();
+
+        assertThat(profile.get("user-2")).isEqualTo("bob");
+        assertThat(prefs.get("user-2")).isNull();
+    }
+
+    @Test
+    public void testDeleteClearsOwnBinOnly() {
+        IMap<String, String> profile = hazelcast.getMap("profile");
+        IMap<String, String> prefs = hazelcast.getMap("prefs");
+
+        profile.put("user-3", "carol");
+        prefs.put("user-3", "light-mode");
+
+        profile.delete("user-3");
+        assertThat(aerospikeClient.getBins("user-3"))
+                .doesNotContainKey("profile")
+                .containsEntry("prefs", "light-mode");
+
+        // last bin gone: the record is removed
+        prefs.delete("user-3");
+        assertThat(aerospikeClient.getBins("user-3")).isNull();
+    }
+
+    @Test
+    public void testDeleteOfMissingRecordSucceeds() {
+        IMap<String, String> profile = hazelcast.getMap("profile");
+
+        profile.delete("user-missing");
+
+        assertThat(aerospikeClient.getBins("user-missing")).isNull();
+    }
+
+    @Test
+    public void testCoalescedWritesOfTwoMapsMakeOneRecordWrite() throws Exception {
+        IMap<String, String> profile = hazelcast.getMap("coalesced-profile");
+        IMap<String, String> prefs = hazelcast.getMap("coalesced-prefs");
+        // start from a fresh record (generation 1) on every run
+        profile.delete("user-4");
+        prefs.delete("user-4");
+
+        CompletableFuture<String> p1 = profile.putAsync("user-4", "dave").toCompletableFuture();
+        CompletableFuture<String> p2 = prefs.putAsync("user-4", "compact").toCompletableFuture();
+        CompletableFuture.allOf(p1, p2).get(10, TimeUnit.SECONDS);
+
+        assertThat(aerospikeClient.getBins("user-4"))
+                .containsEntry("profile", "dave")
+                .containsEntry("prefs", "compact");
+        assertThat(aerospikeClient.getGeneration("user-4")).isEqualTo(1);
+    }
+
+    @Test
+    public void testGuardedStoresShareTheirCoalesceGroup() throws Exception {
+        StringStringMultiBinMapStore profile = new StringStringMultiBinMapStore();
+        StringStringMultiBinMapStore prefs = new StringStringMultiBinMapStore();
+        profile.init(hazelcast, groupProperties("profile"), "guarded-profile");
+        try {
+            // each store wraps the shared client in its own guard
+            prefs.init(hazelcast, groupProperties("prefs"), "guarded-prefs");
+            try {
+                profile.delete("user-5");
+                prefs.delete("user-5");
+
+                profile.store("user-5", new MetadataAwareValue<>("erin"));
+                prefs.store("user-5", new MetadataAwareValue<>("wide"));
+
+                assertThat(aerospikeClient.getBins("user-5"))
+                        .containsEntry("profile", "erin")
+                        .containsEntry("prefs", "wide");
+            } finally {
+                prefs.close();
+            }
+        } finally {
+            profile.close();
+        }
+    }
+
+    private Properties groupProperties(String binName) {
+        Properties props = new Properties();
+        props.setProperty("aerospike.host", AS_HOST);
+        props.setProperty("aerospike.port", String.valueOf(AS_PORT));
+        props.setProperty("aerospike.namespace", aerospikeClient.namespace);
+        props.setProperty("aerospike.set", aerospikeClient.setName);
+        props.setProperty("aerospike.binName", binName);
+        props.setProperty("aerospike.coalesce.group", "guarded-users");
+        props.setProperty("aerospike.guard.enabled", "true");
+        return props;
+    }
+}
@@ -2,6 +2,7 @@ package com.hazelcast.fcannizzohz.mapstoredemo;
 
 import com.aerospike.client.AerospikeClient;
 import com.aerospike.client.Bin;
+import com.aerospike.client.IAerospikeClient;
 import com.aerospike.client.Key;
 import com.aerospike.client.Record;
 import com.aerospike.client.policy.ClientPolicy;
@@ -12,6 +13,7 @@ import com.hazelcast.config.Config;
 import com.hazelcast.config.MapStoreConfig;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.jet.config.JetConfig;
+import com.hazelcast.map.EntryLoader.MetadataAwareValue;
 import com.hazelcast.map.IMap;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -19,9 +21,15 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_HOST;
 import static com.hazelcast.fcannizzohz.mapstoredemo.AerospikeTestClient.AS_PORT;
@@ -34,6 +42,7 @@ public class StringStringRecordMapStoreITest {
     private static AerospikeTestClient aerospikeClient;
 
     private HazelcastInstance hazelcast;
+    private StringStringRecordMapStore samplesStore;
 
     @BeforeClass
     public static void setUpClass() {
@@ -74,9 +83,10 @@ public class StringStringRecordMapStoreITest {
                 .setClusterName(randomName())
                 .setLicenseKey(System.getenv("HZ_LICENSEKEY"));
 
+        samplesStore = new StringStringRecordMapStore();
         MapStoreConfig mapStoreConfig = new MapStoreConfig()
                 .setEnabled(true)
-                .setImplementation(new StringStringRecordMapStore())
+                .setImplementation(samplesStore)
                 .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY);
 
         Properties props = new Properties();
@@ -93,6 +103,18 @@ public class StringStringRecordMapStoreITest {
         config.getMapConfig("samples")
               .setMapStoreConfig(mapStoreConfig);
 
+        Properties compressedProps = new Properties();
+        compressedProps.putAll(props);
+        compressedProps.setProperty("aerospike.compression.codec", "deflate");
+        compressedProps.setProperty("aerospike.compression.threshold", "64");
+
+        config.getMapConfig("compressed")
+              .setMapStoreConfig(new MapStoreConfig()
+                      .setEnabled(true)
+                      .setImplementation(new StringStringRecordMapStore())
+                      .setInitialLoadMode(MapStoreConfig.InitialLoadMode.LAZY)
+                      .setProperties(compressedProps));
+
         return config;
     }
 
@@ -121,4 +143,142 @@ public class StringStringRecordMapStoreITest {
         assertThat(raw).isNotNull();
         assertThat(raw.toString()).isEqualTo("v6");
     }
+
+    @Test
+    public void testEntryExpirationIsTheRecordTtl() {
+        IMap<String, String> map = hazelcast.getMap("samples");
+
+        map.put("ttl-1", "v", 60, TimeUnit.SECONDS);
+
+        assertThat(aerospikeClient.getTimeToLive("ttl-1")).isBetween(1, 60);
+
+        // loaded back with the void time of the record
+        map.evict("ttl-1");
+        long now = System.currentTimeMillis();
+        assertThat(map.get("ttl-1")).isEqualTo("v");
+        assertThat(map.getEntryView("ttl-1").getExpirationTime())
+                .isBetween(now, now + TimeUnit.SECONDS.toMillis(61));
+    }
+
+    @Test
+    public void testLargeValuesAreStoredCompressed() {
+        IMap<String, String> map = hazelcast.getMap("compressed");
+        String value = "{\"status\":\"ACTIVE\",\"amount\":100}".repeat(100);
+
+        map.put("big-1", value);
+
+        Object raw = aerospikeClient.getRecord("big-1");
+        assertThat(raw).isInstanceOf(byte[].class);
+        assertThat(((byte[]) raw).length).isLessThan(value.length());
+
+        map.evictAll();
+        assertThat(map.get("big-1")).isEqualTo(value);
+    }
+
+    @Test
+    public void testUncompressedValuesStayReadable() {
+        IMap<String, String> map = hazelcast.getMap("compressed");
+
+        // written by the prepopulation, below the threshold anyway
+        assertThat(map.get("k1")).isEqualTo("v1");
+    }
+
+    @Test
+    public void testOperationsAreMeasured() {
+        IMap<String, String> map = hazelcast.getMap("samples");
+
+        map.getAll(Set.of("k1", "k2", "k3"));
+        map.put("k7", "v7");
+        map.delete("k7");
+
+        MapStoreMetrics metrics = samplesStore.metrics();
+        MapStoreMetrics.Stats loadAll = metrics.stats(MapStoreMetrics.Op.LOAD_ALL);
+        assertThat(loadAll.count()).isGreaterThanOrEqualTo(1);
+        assertThat(loadAll.errors()).isZero();
+        assertThat(loadAll.maxBatch()).isBetween(1L, 3L);
+        assertThat(metrics.stats(MapStoreMetrics.Op.STORE).count()).isEqualTo(1);
+        assertThat(metrics.stats(MapStoreMetrics.Op.DELETE).count()).isEqualTo(1);
+        assertThat(metrics.stats(MapStoreMetrics.Op.STORE).p50Nanos()).isPositive();
+        assertThat(metrics.networkNanos()).isPositive();
+    }
+
+    @Test
+    public void testLoadAllIsReadInParallelChunks() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("aerospike.host", AS_HOST);
+        props.setProperty("aerospike.port", String.valueOf(AS_PORT));
+        props.setProperty("aerospike.namespace", aerospikeClient.namespace);
+        props.setProperty("aerospike.set", aerospikeClient.setName);
+        // chunks of exactly two keys
+        props.setProperty("aerospike.loadAll.initialChunk", "2");
+        props.setProperty("aerospike.loadAll.minChunk", "2");
+        props.setProperty("aerospike.loadAll.maxChunk", "2");
+        props.setProperty("aerospike.loadAll.parallelism", "3");
+
+        // sizes of the batch gets the store sends
+        Queue<Integer> batchGets = new ConcurrentLinkedQueue<>();
+        AerospikeClient client = new AerospikeClient(new ClientPolicy(), AS_HOST, AS_PORT);
+        IAerospikeClient counting = (IAerospikeClient) Proxy.newProxyInstance(
+                IAerospikeClient.class.getClassLoader(), new Class<?>[] {IAerospikeClient.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("get") && args.length > 1 && args[1] instanceof Key[] keys) {
+                        batchGets.add(keys.length);
+                    }
+                    try {
+                        return method.invoke(client, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+
+        StringStringRecordMapStore store = new StringStringRecordMapStore() {
+            @Override
+            protected AerospikeClientRegistry.Lease acquireClient(Properties properties, ClientPolicy clientPolicy,
+                                                                  String mapName) {
+                return AerospikeClientRegistry.unmanaged(counting, null);
+            }
+        };
+        store.init(hazelcast, props, "chunked");
+        try {
+            Map<String, MetadataAwareValue<String>> loaded =
+                    store.loadAll(List.of("k1", "k2", "k3", "k4", "k5", "missing"));
+
+            assertThat(loaded).containsOnlyKeys("k1", "k2", "k3", "k4", "k5");
+            assertThat(loaded.get("k3").getValue()).isEqualTo("v3");
+            assertThat(batchGets).containsExactly(2, 2, 2);
+            assertThat(store.metrics().stats(MapStoreMetrics.Op.LOAD_ALL).maxBatch()).isEqualTo(6);
+        } finally {
+            store.close();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSlowCallsShrinkTheConcurrencyLimit() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("aerospike.host", AS_HOST);
+        props.setProperty("aerospike.port", String.valueOf(AS_PORT));
+        props.setProperty("aerospike.namespace", aerospikeClient.namespace);
+        props.setProperty("aerospike.set", aerospikeClient.setName);
+        props.setProperty("aerospike.limiter.initialLimit", "8");
+        props.setProperty("aerospike.limiter.minLimit", "2");
+        props.setProperty("aerospike.limiter.maxLatencyMs", "0");
+        props.setProperty("aerospike.limiter.backoff", "0.5");
+
+        StringStringRecordMapStore store = new StringStringRecordMapStore();
+        store.init(hazelcast, props, "guarded");
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertThat(store.load("k1").getValue()).isEqualTo("v1");
+            }
+
+            MapStoreMetrics.GuardStats guard = store.metrics().guardStats();
+            assertThat(guard.limit()).isEqualTo(2);
+            assertThat(guard.inFlight()).isZero();
+            assertThat(guard.state()).isEqualTo("CLOSED");
+            assertThat(guard.rejected()).isZero();
+        } finally {
+            store.close();
+        }
+    }
 }